@@ -5,47 +5,13 @@ import java.util.*;
 // Ast class (base class for all other kinds of nodes)
 // **********************************************************************
 abstract class Ast {
+	// Attributes needed only while translating live on the node kinds that
+	// use them: scope on VarDecl, the next label on the compound Stmts, the
+	// true and false labels on the Exps translated to jumps
 
-	public Ast() {
-		scope = Scope.LOCAL;
-	}
-
-	public void setFalse(String label) {
-		falseLabel = label;
-	}
-
-	public String getFalse() {
-		return falseLabel;
-	}
-
-	public void setTrue(String label) {
-		trueLabel = label;
-	}
-
-	public String getTrue() {
-		return trueLabel;
-	}
-
-	public void setNext(String label) {
-		nextLabel = label;
-	}
-
-	public String getNext() {
-		return nextLabel;
-	}
-
-	public void setScope(Scope scope) {
-		this.scope = scope;
-	}
-
-	public Scope getScope() {
-		return scope;
-	}
-
-	protected String falseLabel;
-	protected String trueLabel;
-	protected String nextLabel;
-	protected Scope scope;
+	// Binary snapshot, see AstSnapshot: the node's own fields, then its kids
+	// through out.node, out.stmt and out.exp
+	public abstract void write(AstSnapshot out);
 }
 
 class Program extends Ast {
@@ -62,17 +28,28 @@ class Program extends Ast {
 	// Translating
 	public TranslationAG translate() {
 		declList.setScope(Scope.GLOBAL);
-		declList.setNext(HIRHelper.newLabel());
-		
-		consts = new LinkedList<String>();
+		beginTranslation();
 		TranslationAG dag = declList.translate(new SymbolTable());
 		
+		TranslationAG ret = header();
+		ret.appendCode(dag.getCode());
+
+		return ret;
+	}
+
+	// Starts translating a program, here or decl by decl in a DeclStream
+	static void beginTranslation() {
+		HIRHelper.newLabel(); // ~0 stays reserved so that labels do not renumber
+		consts = new LinkedList<String>();
+	}
+
+	// The code before the decls: the string constants and the entry point,
+	// known only once every decl has been translated
+	static TranslationAG header() {
 		TranslationAG ret = new TranslationAG();
 		for (String item : consts)
 			ret.appendCode(HIRHelper.addConst(item));
 		ret.appendCode(HIRHelper.setEntry("main_", HIRHelper.countGlobal()));
-		ret.appendCode(dag.getCode());
-
 		return ret;
 	}
 
@@ -80,6 +57,18 @@ class Program extends Ast {
 		consts.add(value);
 	}
 
+	// The constants added since the last call, for a DeclStream to write
+	// out as it goes; header() then has only the rest
+	static List<String> takeConsts() {
+		List<String> ret = consts;
+		consts = new LinkedList<String>();
+		return ret;
+	}
+
+	public void write(AstSnapshot out) {
+		out.node(declList);
+	}
+
 	private static LinkedList<String> consts;
 
     private DeclList declList;
@@ -90,7 +79,12 @@ class Program extends Ast {
 // **********************************************************************
 class DeclList extends Ast {
 
-    public DeclList(LinkedList<Decl> decls) {
+    public DeclList(List<Decl> decls) {
+        this.decls = decls.isEmpty() ? NONE : decls.toArray(new Decl[decls.size()]);
+    }
+
+    // Takes decls over, which must not change afterwards
+    public DeclList(Decl[] decls) {
         this.decls = decls;
     }
 
@@ -114,8 +108,16 @@ class DeclList extends Ast {
 			item.setScope(scope);
 	}
 
-    // linked list of kids (Decls)
-    protected LinkedList<Decl> decls;
+	public void write(AstSnapshot out) {
+		out.count(decls.length);
+		for (Decl item : decls)
+			out.node(item);
+	}
+
+    // kids (Decls), exactly as many as parsed and never changed after
+    protected Decl[] decls;
+
+    private static final Decl[] NONE = new Decl[0];
 }
 
 abstract class Decl extends Ast {
@@ -123,6 +125,13 @@ abstract class Decl extends Ast {
     public abstract void check(SymbolTable symbolTable);
 
 	public abstract TranslationAG translate(SymbolTable symbolTable);
+
+	// Binary snapshot, see AstSnapshot
+	public abstract void write(AstSnapshot out);
+
+	// Only a VarDecl's storage depends on where it is declared
+	public void setScope(Scope scope) {
+	}
 }
 
 class VarDecl extends Decl {
@@ -139,7 +148,7 @@ class VarDecl extends Decl {
                     new CompilingException(ExceptionType.SEMANTIC_WARNING, 
                         "Variable " + name.getName() + " cannot be of void type"));
         try {
-            symbolTable.addEntry(name.getName(), new VariableType(type));
+            symbolTable.addEntry(name.getNameId(), new VariableType(type));
         } catch (CompilingException exception) {
             Errors.prompt(name.getLine(), name.getChar(), exception);
         }
@@ -148,15 +157,26 @@ class VarDecl extends Decl {
 	public TranslationAG translate(SymbolTable symbolTable) {
 		VariableType varType;
 		try {
-			varType = new VariableType(type, HIRHelper.newVariable(getScope()), getScope());
-			symbolTable.addEntry(name.getName(), varType);
+			varType = new VariableType(type, HIRHelper.newVariable(scope), scope);
+			symbolTable.addEntry(name.getNameId(), varType);
 		} catch (CompilingException exception) {
 		}
 		return new TranslationAG();
 	}
 
+	public void setScope(Scope scope) {
+		this.scope = scope;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.VAR_DECL);
+		out.type(type);
+		out.id(name);
+	}
+
     private Type type;
     private Id name;
+	private Scope scope = Scope.LOCAL;
 }
 
 class FnDecl extends Decl {
@@ -171,15 +191,15 @@ class FnDecl extends Decl {
 
     // Semantic checking
     public void check(SymbolTable symbolTable) {
-        SymbolTable fnSymbolTable = new SymbolTable();
-        fnSymbolTable.setParent(symbolTable);
-        formalList.check(fnSymbolTable);
+        symbolTable.enterScope();
+        formalList.check(symbolTable);
         try {
-            symbolTable.addEntry(name.getName(), new FunctionType(type, formalList.getTypes(), false));
+            symbolTable.addGlobalEntry(name.getNameId(), new FunctionType(type, formalList.getTypes(), false));
         } catch (CompilingException exception) {
             Errors.prompt(name.getLine(), name.getChar(), exception);
         }
-        body.check(fnSymbolTable);
+        body.check(symbolTable);
+        symbolTable.exitScope();
     }
 
 	public TranslationAG translate(SymbolTable symbolTable) {
@@ -187,14 +207,14 @@ class FnDecl extends Decl {
 		HIRHelper.reset();
 
 		try {
-            symbolTable.addEntry(name.getName(), new FunctionType(type, formalList.getTypes(), false));
+            symbolTable.addEntry(name.getNameId(), new FunctionType(type, formalList.getTypes(), false));
         } catch (CompilingException exception) {
         }
 
-		SymbolTable fnSymbolTable = new SymbolTable();
-		fnSymbolTable.setParent(symbolTable);
-		TranslationAG fag = formalList.translate(fnSymbolTable);
-		TranslationAG bag = body.translate(fnSymbolTable);
+		symbolTable.enterScope();
+		TranslationAG fag = formalList.translate(symbolTable);
+		TranslationAG bag = body.translate(symbolTable);
+		symbolTable.exitScope();
 		
 		TranslationAG ret = new TranslationAG();
 		ret.appendCode(HIRHelper.beginFunction(name.getName() + "_" + formalList.getLabel(), HIRHelper.countLocal(), HIRHelper.countTemporary()));
@@ -216,6 +236,14 @@ class FnDecl extends Decl {
         return type;
     }
 
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.FN_DECL);
+		out.type(type);
+		out.id(name);
+		out.node(formalList);
+		out.node(body);
+	}
+
     private Type type;
     private Id name;
     private FormalsList formalList;
@@ -232,9 +260,11 @@ class FnPreDecl extends Decl {
 
     // Semantic checking
     public void check(SymbolTable symbolTable) {
-        formalList.check(new SymbolTable());
+        symbolTable.enterScope();
+        formalList.check(symbolTable);
+        symbolTable.exitScope();
         try {
-            symbolTable.addEntry(name.getName(), new FunctionType(type, formalList.getTypes(), true));
+            symbolTable.addEntry(name.getNameId(), new FunctionType(type, formalList.getTypes(), true));
         } catch (CompilingException exception) {
             Errors.prompt(name.getLine(), name.getChar(), exception);
         }
@@ -244,6 +274,13 @@ class FnPreDecl extends Decl {
 		return new TranslationAG();
 	}
 
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.FN_PRE_DECL);
+		out.type(type);
+		out.id(name);
+		out.node(formalList);
+	}
+
     private Type type;
     private Id name;
     private FormalsList formalList;
@@ -251,7 +288,12 @@ class FnPreDecl extends Decl {
 
 class FormalsList extends Ast {
 
-    public FormalsList(LinkedList<FormalDecl> formals) {
+    public FormalsList(List<FormalDecl> formals) {
+        this.formals = formals.isEmpty() ? NONE : formals.toArray(new FormalDecl[formals.size()]);
+    }
+
+    // Takes formals over, which must not change afterwards
+    public FormalsList(FormalDecl[] formals) {
         this.formals = formals;
     }
 
@@ -276,14 +318,17 @@ class FormalsList extends Ast {
 	}
 
 	public int size() {
-		return formals.size();
+		return formals.length;
 	}
 
 	public String getLabel() {
-		String ret = "";
-		for (FormalDecl item : formals)
-			ret += "_" + item.getType().getName();
-		return ret;
+		if (label == null) {
+			StringBuilder ret = new StringBuilder();
+			for (FormalDecl item : formals)
+				ret.append('_').append(item.getType().getName());
+			label = ret.toString();
+		}
+		return label;
 	}
 
     public LinkedList<Type>getTypes() {
@@ -293,8 +338,17 @@ class FormalsList extends Ast {
         return types;
     }
 
-    // linked list of kids (FormalDecls)
-    private LinkedList<FormalDecl> formals;
+	public void write(AstSnapshot out) {
+		out.count(formals.length);
+		for (FormalDecl item : formals)
+			out.node(item);
+	}
+
+    // kids (FormalDecls), exactly as many as parsed and never changed after
+    private FormalDecl[] formals;
+
+    private static final FormalDecl[] NONE = new FormalDecl[0];
+    private String label; // mangled parameter types, built on first use
 }
 
 class FormalDecl extends Decl {
@@ -311,7 +365,7 @@ class FormalDecl extends Decl {
                     new CompilingException(ExceptionType.SEMANTIC_ERROR,
                         "Variable " + name.getName() + " cannot be of void type"));
         try {
-            symbolTable.addEntry(name.getName(), new VariableType(type));
+            symbolTable.addEntry(name.getNameId(), new VariableType(type));
         } catch (CompilingException exception) {
             Errors.prompt(name.getLine(), name.getChar(), exception);
         }
@@ -321,7 +375,7 @@ class FormalDecl extends Decl {
 		VariableType varType;
 		try {
 			varType = new VariableType(type, HIRHelper.newVariable(Scope.PARAM), Scope.PARAM);
-			symbolTable.addEntry(name.getName(), varType);
+			symbolTable.addEntry(name.getNameId(), varType);
 		} catch (CompilingException exception) {
 		}
 		return new TranslationAG();
@@ -331,6 +385,11 @@ class FormalDecl extends Decl {
         return type;
     }
 
+	public void write(AstSnapshot out) {
+		out.type(type);
+		out.id(name);
+	}
+
     private Type type;
     private Id name;
 }
@@ -362,29 +421,97 @@ class FnBody extends Ast {
         this.stmtList.setFunction(fn);
     }
 
+	public void write(AstSnapshot out) {
+		out.node(declList);
+		out.node(stmtList);
+	}
+
     private DeclList declList;
     private StmtList stmtList;
 }
 
 class StmtList extends Ast {
 
-    public StmtList(LinkedList<Stmt> stmts) {
+    public StmtList(List<Stmt> stmts) {
+        this.stmts = stmts.isEmpty() ? NONE : stmts.toArray(new Stmt[stmts.size()]);
+    }
+
+    // Takes stmts over, which must not change afterwards
+    public StmtList(Stmt[] stmts) {
         this.stmts = stmts;
-    } 
+    }
 
-    // Semantic checking 
+    // Semantic checking. Blocks nested in the stmts are walked with a stack
+    // of Frames instead of by recursion, so that no depth of nesting can
+    // overflow the thread's stack
     public void check(SymbolTable symbolTable) {
-        for (Stmt item : stmts) 
-            item.check(symbolTable);
+		ArrayList<Frame> stack = new ArrayList<Frame>();
+		stack.add(new Frame(this, false));
+		while (!stack.isEmpty()) {
+			Frame top = stack.get(stack.size() - 1);
+			if (top.item == top.list.stmts.length) {
+				stack.remove(stack.size() - 1);
+				if (top.scoped)
+					symbolTable.exitScope();
+				continue;
+			}
+			Stmt item = top.list.stmts[top.item];
+			if (!(item instanceof CompoundStmt)) {
+				item.check(symbolTable);
+				top.item++;
+				continue;
+			}
+			CompoundStmt compound = (CompoundStmt) item;
+			if (top.block < 0)
+				compound.checkHead(symbolTable);
+			if (++top.block < compound.blockCount()) {
+				compound.checkBlockDecls(top.block, symbolTable);
+				stack.add(new Frame(compound.blockStmts(top.block), true));
+			} else {
+				top.item++;
+				top.block = -1;
+			}
+		}
     }
 
+	// Translating, with the same walk as check, into a single TranslationAG
 	public TranslationAG translate(SymbolTable symbolTable) {
 		TranslationAG ret = new TranslationAG();
-		for (Stmt item : stmts) {
-			item.setNext(HIRHelper.newLabel());
-			TranslationAG iag = item.translate(symbolTable);
-			if (ret.appendCode(iag.getCode()))
-				ret.appendCode(item.getNext() + ":");
+		ArrayList<Frame> stack = new ArrayList<Frame>();
+		stack.add(new Frame(this, false));
+		while (!stack.isEmpty()) {
+			Frame top = stack.get(stack.size() - 1);
+			if (top.block < 0) {
+				if (top.item == top.list.stmts.length) {
+					stack.remove(stack.size() - 1);
+					if (top.scoped)
+						symbolTable.exitScope();
+					continue;
+				}
+				Stmt item = top.list.stmts[top.item];
+				top.next = HIRHelper.newLabel();
+				item.setNext(top.next);
+				top.start = ret.getCode().length();
+				if (item instanceof CompoundStmt) {
+					top.pieces = ((CompoundStmt) item).translateHead(symbolTable);
+					ret.appendCode(top.pieces[0].getCode());
+				} else
+					ret.appendCode(item.translate(symbolTable).getCode());
+			} else
+				ret.appendCode(top.pieces[top.block + 1].getCode());
+
+			Stmt item = top.list.stmts[top.item];
+			if (item instanceof CompoundStmt && ++top.block < ((CompoundStmt) item).blockCount()) {
+				CompoundStmt compound = (CompoundStmt) item;
+				compound.translateBlockDecls(top.block, symbolTable, ret);
+				stack.add(new Frame(compound.blockStmts(top.block), true));
+				continue;
+			}
+			if (ret.getCode().length() > top.start)
+				ret.appendCode(top.next + ":");
+			top.item++;
+			top.block = -1;
+			top.pieces = null;
 		}
 		return ret;
 	}
@@ -394,8 +521,33 @@ class StmtList extends Ast {
             item.setFunction(fn);
     }
 
-    // linked list of kids (Stmts)
-    private LinkedList<Stmt> stmts;
+	public void write(AstSnapshot out) {
+		out.count(stmts.length);
+		for (Stmt item : stmts)
+			out.stmt(item);
+	}
+
+    // kids (Stmts), exactly as many as parsed and never changed after
+    private Stmt[] stmts;
+
+    private static final Stmt[] NONE = new Stmt[0];
+
+	// Where a walk stands in one StmtList of the nest
+	private static final class Frame {
+
+		Frame(StmtList list, boolean scoped) {
+			this.list = list;
+			this.scoped = scoped;
+		}
+
+		final StmtList list;
+		final boolean scoped;   // a block's, whose scope closes with it
+		int item;               // the stmt being walked
+		int block = -1;         // its block being walked, -1 before the first
+		String next;            // translating: the label after the stmt
+		int start;              // translating: length of the code before it
+		TranslationAG[] pieces; // translating: the code around its blocks
+	}
 }
 
 // **********************************************************************
@@ -449,6 +601,14 @@ class Type extends Ast {
     public int getNumPointers() {
         return numPointers;
     }
+
+    public int getSize() {
+        return size;
+    }
+
+	public void write(AstSnapshot out) {
+		out.type(this);
+	}
  
     private String name;
     private int size;  // use if this is an array type
@@ -485,13 +645,85 @@ abstract class Stmt extends Ast {
 
 	public abstract TranslationAG translate(SymbolTable symbolTable);
 
+	public abstract void write(AstSnapshot out);
+
     public void setFunction(FnDecl fn) {
         this.fn = fn;
     }
 
+	// The label after the stmt, which only a compound stmt jumps to
+	public void setNext(String label) {
+	}
+
     protected FnDecl fn;
 }
 
+// Stmts with a body, which need the label after them. Their blocks, each a
+// DeclList and StmtList in a scope of its own, are checked and translated
+// apart from the head, the rest of the stmt, so that StmtList can walk
+// nested blocks without recursing
+abstract class CompoundStmt extends Stmt {
+
+	// Checks the head
+	abstract void checkHead(SymbolTable symbolTable);
+
+	// Translates the head: the code before each block, then after the last
+	abstract TranslationAG[] translateHead(SymbolTable symbolTable);
+
+	abstract int blockCount();
+
+	abstract DeclList blockDecls(int i);
+
+	abstract StmtList blockStmts(int i);
+
+	public void check(SymbolTable symbolTable) {
+		checkHead(symbolTable);
+		for (int i = 0; i < blockCount(); ++i) {
+			checkBlockDecls(i, symbolTable);
+			blockStmts(i).check(symbolTable);
+			symbolTable.exitScope();
+		}
+	}
+
+	public TranslationAG translate(SymbolTable symbolTable) {
+		TranslationAG ret = new TranslationAG();
+		TranslationAG[] pieces = translateHead(symbolTable);
+		ret.appendCode(pieces[0].getCode());
+		for (int i = 0; i < blockCount(); ++i) {
+			translateBlockDecls(i, symbolTable, ret);
+			ret.appendCode(blockStmts(i).translate(symbolTable).getCode());
+			symbolTable.exitScope();
+			ret.appendCode(pieces[i + 1].getCode());
+		}
+		return ret;
+	}
+
+	// Opens the scope of block i and checks the block's decls in it; the
+	// caller closes the scope after the block's stmts
+	void checkBlockDecls(int i, SymbolTable symbolTable) {
+		symbolTable.enterScope();
+		blockDecls(i).check(symbolTable);
+		blockStmts(i).setFunction(fn);
+	}
+
+	// Opens the scope of block i and translates the block's decls onto out
+	void translateBlockDecls(int i, SymbolTable symbolTable, TranslationAG out) {
+		symbolTable.enterScope();
+		out.appendCode(blockDecls(i).translate(symbolTable).getCode());
+		blockStmts(i).setFunction(fn);
+	}
+
+	public void setNext(String label) {
+		nextLabel = label;
+	}
+
+	public String getNext() {
+		return nextLabel;
+	}
+
+	private String nextLabel;
+}
+
 class AssignStmt extends Stmt {
 
     public AssignStmt(Exp lhs, Exp exp) {
@@ -529,11 +761,17 @@ class AssignStmt extends Stmt {
 		return ag;
 	}
 
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.ASSIGN);
+		out.exp(lhs);
+		out.exp(exp);
+	}
+
     private Exp lhs;
     private Exp exp;
 }
 
-class IfStmt extends Stmt {
+class IfStmt extends CompoundStmt {
 
     public IfStmt(Exp exp, DeclList declList, StmtList stmtList) {
         this.exp = exp;
@@ -542,44 +780,49 @@ class IfStmt extends Stmt {
     }
 
     // Semantic checking
-    public void check(SymbolTable symbolTable) {
-        if (exp.getType(symbolTable).getName() != Type.boolTypeName)
+	void checkHead(SymbolTable symbolTable) {
+		if (exp.getType(symbolTable).getName() != Type.boolTypeName)
 			Errors.prompt(exp.getLine(), exp.getChar(),
 					new CompilingException(ExceptionType.SEMANTIC_ERROR,
 						"Condition expression must be of bool type"));
-        SymbolTable ifSymbolTable = new SymbolTable();
-        ifSymbolTable.setParent(symbolTable);
-        declList.check(ifSymbolTable);
-        stmtList.setFunction(fn);
-        stmtList.check(ifSymbolTable);
-    }
+	}
 
 	// Translating
-	public TranslationAG translate(SymbolTable symbolTable) {
-		exp.setTrue(HIRHelper.newLabel());
+	TranslationAG[] translateHead(SymbolTable symbolTable) {
+		String trueLabel = HIRHelper.newLabel();
+		exp.setTrue(trueLabel);
 		exp.setFalse(getNext());
-		stmtList.setNext(getNext());
 
-		TranslationAG eag = exp.translate(symbolTable);
-		SymbolTable ifSymbolTable = new SymbolTable();
-		ifSymbolTable.setParent(symbolTable);
-		TranslationAG dag = declList.translate(ifSymbolTable);
-		TranslationAG sag = stmtList.translate(ifSymbolTable);
+		TranslationAG ret = exp.translate(symbolTable);
+		ret.appendCode(trueLabel + ":");
+		return new TranslationAG[] { ret, new TranslationAG() };
+	}
 
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag.getCode());
-		ret.appendCode(exp.getTrue() + ":");
-		ret.appendCode(dag.getCode());
-		ret.appendCode(sag.getCode());
-		return ret;
+	int blockCount() {
+		return 1;
 	}
-    
+
+	DeclList blockDecls(int i) {
+		return declList;
+	}
+
+	StmtList blockStmts(int i) {
+		return stmtList;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.IF);
+		out.exp(exp);
+		out.node(declList);
+		out.node(stmtList);
+	}
+
     private Exp exp;
     private DeclList declList;
     private StmtList stmtList;
 }
 
-class IfElseStmt extends Stmt {
+class IfElseStmt extends CompoundStmt {
 
     public IfElseStmt(Exp exp, DeclList declList1, StmtList stmtList1, 
             DeclList declList2, StmtList stmtList2) {
@@ -591,52 +834,46 @@ class IfElseStmt extends Stmt {
     }
 
     // Semantic checking
-    public void check(SymbolTable symbolTable) {
+	void checkHead(SymbolTable symbolTable) {
 		if (exp.getType(symbolTable).getName() != Type.boolTypeName)
 			Errors.prompt(exp.getLine(), exp.getChar(),
 					new CompilingException(ExceptionType.SEMANTIC_ERROR,
 						"Condition expression must be of bool type"));
-        SymbolTable ifSymbolTable = new SymbolTable();
-        ifSymbolTable.setParent(symbolTable);
-        declList1.check(ifSymbolTable);
-        stmtList1.setFunction(fn);
-        stmtList1.check(ifSymbolTable);
-        SymbolTable elseSymbolTable = new SymbolTable();
-        elseSymbolTable.setParent(symbolTable);
-        declList2.check(elseSymbolTable);
-        stmtList2.setFunction(fn);
-        stmtList2.check(elseSymbolTable);
-    }
+	}
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		exp.setTrue(HIRHelper.newLabel());
-		exp.setFalse(HIRHelper.newLabel());
-		stmtList1.setNext(getNext());
-		stmtList2.setNext(getNext());
-		stmtList1.setFunction(fn);
-		stmtList2.setFunction(fn);
-
-		TranslationAG eag = exp.translate(symbolTable);
-		SymbolTable ifSymbolTable = new SymbolTable();
-        ifSymbolTable.setParent(symbolTable);
-		TranslationAG d1ag = declList1.translate(ifSymbolTable);
-        TranslationAG s1ag = stmtList1.translate(ifSymbolTable);
-        SymbolTable elseSymbolTable = new SymbolTable();
-        elseSymbolTable.setParent(symbolTable);
-        TranslationAG d2ag = declList2.translate(elseSymbolTable);
-        TranslationAG s2ag = stmtList2.translate(elseSymbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag.getCode());
-		ret.appendCode(exp.getTrue() + ":");
-		ret.appendCode(d1ag.getCode());
-		ret.appendCode(s1ag.getCode());
-		ret.appendCode(HIRHelper.jump(getNext()));
-		ret.appendCode(exp.getFalse() + ":");
-		ret.appendCode(d2ag.getCode());
-		ret.appendCode(s2ag.getCode());
+	TranslationAG[] translateHead(SymbolTable symbolTable) {
+		String trueLabel = HIRHelper.newLabel();
+		String falseLabel = HIRHelper.newLabel();
+		exp.setTrue(trueLabel);
+		exp.setFalse(falseLabel);
 
-		return ret;
+		TranslationAG ret = exp.translate(symbolTable);
+		ret.appendCode(trueLabel + ":");
+		TranslationAG elseAg = new TranslationAG();
+		elseAg.appendCode(HIRHelper.jump(getNext()));
+		elseAg.appendCode(falseLabel + ":");
+		return new TranslationAG[] { ret, elseAg, new TranslationAG() };
+	}
+
+	int blockCount() {
+		return 2;
+	}
+
+	DeclList blockDecls(int i) {
+		return i == 0 ? declList1 : declList2;
+	}
+
+	StmtList blockStmts(int i) {
+		return i == 0 ? stmtList1 : stmtList2;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.IF_ELSE);
+		out.exp(exp);
+		out.node(declList1);
+		out.node(stmtList1);
+		out.node(declList2);
+		out.node(stmtList2);
 	}
 
     private Exp exp;
@@ -646,7 +883,7 @@ class IfElseStmt extends Stmt {
     private StmtList stmtList2;
 }
 
-class WhileStmt extends Stmt {
+class WhileStmt extends CompoundStmt {
 
     public WhileStmt(Exp exp, DeclList declList, StmtList stmtList) {
         this.exp = exp;
@@ -655,38 +892,45 @@ class WhileStmt extends Stmt {
     }
 
     // Semantic checking
-    public void check(SymbolTable symbolTable) {
+	void checkHead(SymbolTable symbolTable) {
 		if (exp.getType(symbolTable).getName() != Type.boolTypeName)
 			Errors.prompt(exp.getLine(), exp.getChar(),
 					new CompilingException(ExceptionType.SEMANTIC_ERROR,
 						"Condition expression must be of bool type"));
-        SymbolTable whlSymbolTable = new SymbolTable();
-        whlSymbolTable.setParent(symbolTable);
-        declList.check(whlSymbolTable);
-        stmtList.setFunction(fn);
-        stmtList.check(whlSymbolTable);
-    }
+	}
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		stmtList.setNext(HIRHelper.newLabel());
-		stmtList.setFunction(fn);
-		exp.setTrue(HIRHelper.newLabel());
+	TranslationAG[] translateHead(SymbolTable symbolTable) {
+		String loopLabel = HIRHelper.newLabel();
+		String trueLabel = HIRHelper.newLabel();
+		exp.setTrue(trueLabel);
 		exp.setFalse(getNext());
 
-		SymbolTable whlSymbolTable = new SymbolTable();
-        whlSymbolTable.setParent(symbolTable);
-		TranslationAG eag = exp.translate(symbolTable);
-        TranslationAG dag = declList.translate(whlSymbolTable);
-        TranslationAG sag = stmtList.translate(whlSymbolTable);
-
 		TranslationAG ret = new TranslationAG();
-		ret.appendCode(stmtList.getNext() + ":");
-		ret.appendCode(eag.getCode());
-		ret.appendCode(exp.getTrue() + ":");
-		ret.appendCode(dag.getCode());
-		ret.appendCode(sag.getCode());
-		ret.appendCode(HIRHelper.jump(stmtList.getNext()));
-		return ret;
+		ret.appendCode(loopLabel + ":");
+		ret.appendCode(exp.translate(symbolTable).getCode());
+		ret.appendCode(trueLabel + ":");
+		TranslationAG loopAg = new TranslationAG();
+		loopAg.appendCode(HIRHelper.jump(loopLabel));
+		return new TranslationAG[] { ret, loopAg };
+	}
+
+	int blockCount() {
+		return 1;
+	}
+
+	DeclList blockDecls(int i) {
+		return declList;
+	}
+
+	StmtList blockStmts(int i) {
+		return stmtList;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.WHILE);
+		out.exp(exp);
+		out.node(declList);
+		out.node(stmtList);
 	}
 
     private Exp exp;
@@ -694,7 +938,7 @@ class WhileStmt extends Stmt {
     private StmtList stmtList;
 }
 
-class ForStmt extends Stmt {
+class ForStmt extends CompoundStmt {
 
     public ForStmt(Stmt init, Exp cond, Stmt incr, 
             DeclList declList, StmtList stmtList) {
@@ -706,46 +950,53 @@ class ForStmt extends Stmt {
     }
 
     // Semantic checking
-    public void check(SymbolTable symbolTable) {
+	void checkHead(SymbolTable symbolTable) {
         init.check(symbolTable);
 		if (cond.getType(symbolTable).getName() != Type.boolTypeName)
 			Errors.prompt(cond.getLine(), cond.getChar(),
 					new CompilingException(ExceptionType.SEMANTIC_ERROR,
 						"Condition expression must be of bool type"));
         incr.check(symbolTable);
+	}
 
-        SymbolTable forSymbolTable = new SymbolTable();
-        forSymbolTable.setParent(symbolTable);
-        declList.check(forSymbolTable);
-        stmtList.setFunction(fn);
-        stmtList.check(forSymbolTable);
-    }
-
-	public TranslationAG translate(SymbolTable symbolTable) {
-		stmtList.setNext(HIRHelper.newLabel());
-		stmtList.setFunction(fn);
-		cond.setTrue(HIRHelper.newLabel());
+	TranslationAG[] translateHead(SymbolTable symbolTable) {
+		String loopLabel = HIRHelper.newLabel();
+		String trueLabel = HIRHelper.newLabel();
+		cond.setTrue(trueLabel);
 		cond.setFalse(getNext());
 
 		TranslationAG iag = init.translate(symbolTable);
 		TranslationAG cag = cond.translate(symbolTable);
 		TranslationAG mag = incr.translate(symbolTable);
-		SymbolTable forSymbolTable = new SymbolTable();
-		forSymbolTable.setParent(symbolTable);
-		TranslationAG dag = declList.translate(forSymbolTable);
-		TranslationAG sag = stmtList.translate(forSymbolTable);
 
 		TranslationAG ret = new TranslationAG();
 		ret.appendCode(iag.getCode());
-		ret.appendCode(stmtList.getNext() + ":");
+		ret.appendCode(loopLabel + ":");
 		ret.appendCode(cag.getCode());
-		ret.appendCode(cond.getTrue() + ":");
-		ret.appendCode(dag.getCode());
-		ret.appendCode(sag.getCode());
-		ret.appendCode(mag.getCode());
-		ret.appendCode(HIRHelper.jump(stmtList.getNext()));
+		ret.appendCode(trueLabel + ":");
+		mag.appendCode(HIRHelper.jump(loopLabel));
+		return new TranslationAG[] { ret, mag };
+	}
 
-		return ret;
+	int blockCount() {
+		return 1;
+	}
+
+	DeclList blockDecls(int i) {
+		return declList;
+	}
+
+	StmtList blockStmts(int i) {
+		return stmtList;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.FOR);
+		out.stmt(init);
+		out.exp(cond);
+		out.stmt(incr);
+		out.node(declList);
+		out.node(stmtList);
 	}
 
     private Stmt init;
@@ -770,6 +1021,11 @@ class CallStmt extends Stmt {
 		return callExp.translate(symbolTable);
 	}
 
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.CALL_STMT);
+		out.exp(callExp);
+	}
+
     private CallExp callExp;
 }
 
@@ -806,6 +1062,11 @@ class ReturnStmt extends Stmt {
 		return ret;
 	}
 
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.RETURN);
+		out.exp(exp);
+	}
+
     private Exp exp; // null for empty return
 }
 
@@ -814,30 +1075,32 @@ class ReturnStmt extends Stmt {
 // **********************************************************************
 abstract class Exp extends Ast {
 
-	public Exp() {
-		isResult = false;
-	}
-
     public abstract int getLine();
     public abstract int getChar();
     public abstract Type getType(SymbolTable symbolTable);
 	public abstract TranslationAG translate(SymbolTable symbolTable);
+	public abstract void write(AstSnapshot out);
 
+	// Marks the exp as the target of an assignment, which only an ArrayExp
+	// translates differently
 	public void setResult() {
-		isResult = true;
 	}
 
-	protected boolean isResult;
+	// Where control goes when the exp is true or false, which only matters
+	// to the exps translated to jumps
+	public void setTrue(String label) {
+	}
+
+	public void setFalse(String label) {
+	}
 }
 
 abstract class BasicExp extends Exp
 {
-    private int lineNum;
-    private int charNum;
+    private long position; // line in the high half, char in the low
     
     public BasicExp(int lineNum, int charNum) {
-        this.lineNum = lineNum;
-        this.charNum = charNum;
+        this.position = (long) lineNum << 32 | (charNum & 0xFFFFFFFFL);
     }
 
 	public TranslationAG translate(SymbolTable symbolTable) {
@@ -845,12 +1108,128 @@ abstract class BasicExp extends Exp
 	}
     
     public int getLine() {
-        return lineNum;
+        return (int) (position >>> 32);
     }
     
 	public int getChar() {
-        return charNum;
+        return (int) position;
     }
+
+	// Moves the node delta lines down, for IncrementalParser
+	void shiftLine(int delta) {
+		position += (long) delta << 32;
+	}
+}
+
+// An Exp with kids: ArrayExp, CallExp, UnaryExp or BinaryExp. getType and
+// translate walk the CompositeExps under this one with a stack of Frames
+// instead of by recursion, so that no chain or nesting of operators,
+// subscripts or calls can overflow the thread's stack. Each kind names its
+// kids and does its own part through the hooks below, which the walks
+// call in the order the recursion would.
+abstract class CompositeExp extends Exp {
+
+	// Semantic checking
+	public Type getType(SymbolTable symbolTable) {
+		ArrayList<Frame> stack = new ArrayList<Frame>();
+		ArrayList<Type> types = new ArrayList<Type>();
+		stack.add(new Frame(this, 0));
+		while (!stack.isEmpty()) {
+			Frame top = stack.get(stack.size() - 1);
+			if (top.kid == top.exp.typedKids()) {
+				stack.remove(stack.size() - 1);
+				List<Type> kidTypes = types.subList(top.base, types.size());
+				Type type = top.exp.getType(symbolTable, kidTypes);
+				kidTypes.clear();
+				types.add(type);
+				continue;
+			}
+			Exp kid = top.exp.kid(top.kid++);
+			if (kid instanceof CompositeExp)
+				stack.add(new Frame((CompositeExp) kid, types.size()));
+			else
+				types.add(kid.getType(symbolTable));
+		}
+		return types.get(0);
+	}
+
+	// Translating, with the same walk as getType. The code goes to one
+	// TranslationAG in the order of the HIR, as each piece of it is made,
+	// so none of it is copied again at the levels above; only the
+	// addresses are kept on a stack
+	public TranslationAG translate(SymbolTable symbolTable) {
+		TranslationAG ret = new TranslationAG();
+		ArrayList<Frame> stack = new ArrayList<Frame>();
+		ArrayList<String> addrs = new ArrayList<String>();
+		translateHead(symbolTable);
+		stack.add(new Frame(this, 0));
+		for (;;) {
+			Frame top = stack.get(stack.size() - 1);
+			String addr;
+			if (top.kid == top.exp.kids()) {
+				stack.remove(stack.size() - 1);
+				List<String> kidAddrs = addrs.subList(top.base, addrs.size());
+				addr = top.exp.translate(ret, kidAddrs);
+				kidAddrs.clear();
+				if (stack.isEmpty()) {
+					ret.setAddress(addr);
+					return ret;
+				}
+				top = stack.get(stack.size() - 1);
+			} else {
+				Exp kid = top.exp.kid(top.kid++);
+				if (kid instanceof CompositeExp) {
+					((CompositeExp) kid).translateHead(symbolTable);
+					stack.add(new Frame((CompositeExp) kid, addrs.size()));
+					continue;
+				}
+				TranslationAG eag = kid.translate(symbolTable);
+				ret.appendCode(eag.getCode());
+				addr = eag.getAddress();
+			}
+			addrs.add(addr);
+			top.exp.translateKid(ret, top.kid - 1, addr);
+		}
+	}
+
+	// The number of kids, and kid i
+	abstract int kids();
+
+	abstract Exp kid(int i);
+
+	// The number of kids, from the first, that getType walks
+	int typedKids() {
+		return kids();
+	}
+
+	// The type of the exp, given those of its kids
+	abstract Type getType(SymbolTable symbolTable, List<Type> kidTypes);
+
+	// Called before the first kid is translated, so that the exp can set
+	// the labels of its kids
+	void translateHead(SymbolTable symbolTable) {
+	}
+
+	// Called after kid i is translated, with its address
+	void translateKid(TranslationAG ret, int i, String addr) {
+	}
+
+	// Appends the code of the exp itself to ret, after that of its kids,
+	// whose addresses are addrs, and returns its address ("" if none)
+	abstract String translate(TranslationAG ret, List<String> addrs);
+
+	// Where a walk stands in one CompositeExp of the tree
+	private static final class Frame {
+
+		Frame(CompositeExp exp, int base) {
+			this.exp = exp;
+			this.base = base;
+		}
+
+		final CompositeExp exp;
+		final int base; // the size of the types or addresses when it began
+		int kid;        // the kid to walk next
+	}
 }
 
 class IntLit extends BasicExp {
@@ -869,6 +1248,12 @@ class IntLit extends BasicExp {
 		ret.setAddress(Integer.toString(intVal));
 		return ret;
 	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.INT_LIT);
+		out.position(getLine(), getChar());
+		out.integer(intVal);
+	}
  
     private int intVal;
 }
@@ -895,24 +1280,31 @@ class StringLit extends BasicExp {
         return strVal;
     }
     
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.STRING_LIT);
+		out.position(getLine(), getChar());
+		out.string(strVal);
+	}
+
     private String strVal;
 }
 
 class Id extends BasicExp {
 
     public Id(int lineNum, int charNum, String strVal) {
+        this(lineNum, charNum, NamePool.intern(strVal));
+    }
+
+    public Id(int lineNum, int charNum, int nameId) {
         super(lineNum, charNum);
-        this.strVal = strVal;
+        this.nameId = nameId;
+        this.strVal = NamePool.getName(nameId);
     }
 
     public Type getType(SymbolTable symbolTable) {
-		while (symbolTable != null) {
-	        try {
-		        return symbolTable.getVariableType(strVal).getType();
-			} catch (CompilingException exception) {
-		    }
-			symbolTable = symbolTable.getParent();
-		}
+		VariableType varType = symbolTable.lookupVariable(nameId);
+		if (varType != null)
+			return varType.getType();
 		Errors.prompt(getLine(), getChar(), 
 				new CompilingException(
 				    ExceptionType.SEMANTIC_ERROR,
@@ -922,16 +1314,7 @@ class Id extends BasicExp {
 
 	public TranslationAG translate(SymbolTable symbolTable) {
 		TranslationAG ret = new TranslationAG();
-		VariableType varType;
-		while (true) {
-			try {
-				varType = symbolTable.getVariableType(strVal);
-				if (varType.getType().getName() != Type.errorTypeName) 
-					break;
-			} catch (CompilingException exception) {
-			}
-			symbolTable = symbolTable.getParent();
-		}
+		VariableType varType = symbolTable.lookupVariable(nameId);
 		ret.setAddress(HIRHelper.getAddress(varType.getAddress(), varType.getScope()));
 		return ret;
 	}
@@ -940,42 +1323,50 @@ class Id extends BasicExp {
         return strVal;
     }
 
+    public int getNameId() {
+        return nameId;
+    }
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.ID);
+		out.id(this);
+	}
+
     private String strVal;
+    private int nameId;
 }
 
-class ArrayExp extends Exp {
+class ArrayExp extends CompositeExp {
 
     public ArrayExp(Exp lhs, Exp exp) {
         this.lhs = lhs;
         this.exp = exp;
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type ret = lhs.getType(symbolTable);
-        Type eType = exp.getType(symbolTable);
-        if (eType.getName() != Type.intTypeName)
+	int kids() {
+		return 2;
+	}
+
+	Exp kid(int i) {
+		return i == 0 ? lhs : exp;
+	}
+
+    Type getType(SymbolTable symbolTable, List<Type> kidTypes) {
+        if (kidTypes.get(1).getName() != Type.intTypeName)
             Errors.prompt(getLine(), getChar(), 
                     new CompilingException(ExceptionType.SEMANTIC_ERROR,
                         "Index operand must be of int type"));
-        return ret;
+        return kidTypes.get(0);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG ret = new TranslationAG();
-
-		TranslationAG lag = lhs.translate(symbolTable);
-		TranslationAG eag = exp.translate(symbolTable);
-		ret.appendCode(lag.getCode());
-		ret.appendCode(eag.getCode());
-		lhsAddr = lag.getAddress();
-		expAddr = eag.getAddress();
-
-		if (!isResult) {
-			ret.setAddress(HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY));
-			ret.appendCode(HIRHelper.getArray(ret.getAddress(), lhsAddr, expAddr));
-		}
-
-		return ret;
+	String translate(TranslationAG ret, List<String> addrs) {
+		lhsAddr = addrs.get(0);
+		expAddr = addrs.get(1);
+		if (isResult)
+			return "";
+		String addr = HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY);
+		ret.appendCode(HIRHelper.getArray(addr, lhsAddr, expAddr));
+		return addr;
 	}
 
     public int getLine() {
@@ -994,13 +1385,24 @@ class ArrayExp extends Exp {
 		return expAddr;
 	}
 
+	public void setResult() {
+		isResult = true;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.ARRAY);
+		out.exp(lhs);
+		out.exp(exp);
+	}
+
     private Exp lhs;
     private Exp exp;
 	private String lhsAddr;
 	private String expAddr;
+	private boolean isResult;
 }
 
-class CallExp extends Exp {
+class CallExp extends CompositeExp {
 
     public CallExp(Id name, ActualList actualList) {
         this.name = name;
@@ -1009,71 +1411,80 @@ class CallExp extends Exp {
 
     public CallExp(Id name) {
         this.name = name;
-        this.actualList = new ActualList(new LinkedList<Exp>());
+        this.actualList = new ActualList(ActualList.NONE);
     }
 
 	private boolean isSystemCall() {
-		return name.getName().equals("scanf") || name.getName().equals("printf");
+		return name.getNameId() == scanfId || name.getNameId() == printfId;
 	}
 
-	private TranslationAG translateSystemCall(SymbolTable symbolTable) {
-		TranslationAG ret = new TranslationAG();
-		TranslationAG aag = actualList.translateSystemCall(symbolTable);
-		ret.appendCode(aag.getCode());
-		if (name.getName().equals("scanf"))
-			ret.appendCode(HIRHelper.readValue(aag.getAddress()));
-		else 
-			ret.appendCode(HIRHelper.writeValue(aag.getAddress()));
-		return ret;
+	int kids() {
+		return actualList.size();
 	}
 
-	private Type getTypeSystemCall(SymbolTable symbolTable) {
-		if (actualList.size() > 1) 
-			Errors.prompt(getLine(), getChar(), 
-					new CompilingException(ExceptionType.SEMANTIC_ERROR, "Invalid parameters"));
-		return Type.CreateSimpleType(Type.voidTypeName);
+	Exp kid(int i) {
+		return actualList.get(i);
 	}
 
-    public Type getType(SymbolTable symbolTable) {
+	// the actuals of a system call are not checked
+	int typedKids() {
+		return isSystemCall() ? 0 : kids();
+	}
+
+    Type getType(SymbolTable symbolTable, List<Type> kidTypes) {
 		// Handle system call
-		if (isSystemCall()) 
-			return getTypeSystemCall(symbolTable);
+		if (isSystemCall()) {
+			if (actualList.size() > 1) 
+				Errors.prompt(getLine(), getChar(), 
+						new CompilingException(ExceptionType.SEMANTIC_ERROR, "Invalid parameters"));
+			return Type.CreateSimpleType(Type.voidTypeName);
+		}
 
-        Type ret = Type.CreateSimpleType(Type.errorTypeName);
-        LinkedList<Type> params = actualList.getType(symbolTable);
-        try {
-            ret = symbolTable.getGlobalScope().getFunctionType(name.getName(), params).getType();
-        } catch (CompilingException exception) {
-            Errors.prompt(getLine(), getChar(), exception);
-        }
-        
-        return ret;
+        FunctionType fnType = symbolTable.lookupFunction(name.getNameId(), new LinkedList<Type>(kidTypes));
+        if (fnType != null)
+            return fnType.getType();
+        Errors.prompt(getLine(), getChar(),
+                new CompilingException(ExceptionType.SEMANTIC_ERROR,
+                    "Function " + name.getName() + " has not been declared"));
+        return Type.CreateSimpleType(Type.errorTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		// Handle system call
-		if (isSystemCall()) 
-			return translateSystemCall(symbolTable);
-
+	// The types of the actuals give the function called and its label
+	void translateHead(SymbolTable symbolTable) {
+		if (isSystemCall())
+			return;
 		LinkedList<Type> params = actualList.getType(symbolTable);
-		String formalsLabel = "";
+		StringBuilder formalsLabel = new StringBuilder();
 		for (Type param : params)
-			formalsLabel += "_" + param.getName();
+			formalsLabel.append('_').append(param.getName());
+		label = name.getName() + "_" + formalsLabel;
+		fnType = symbolTable.lookupFunction(name.getNameId(), params);
+	}
 
-		TranslationAG aag = actualList.translate(symbolTable);
+	void translateKid(TranslationAG ret, int i, String addr) {
+		if (!isSystemCall())
+			ret.appendCode(HIRHelper.setArgument(i, addr));
+	}
 
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(aag.getCode());
-		try {
-			if (symbolTable.getGlobalScope().getFunctionType(name.getName(), params).getType().getName() == Type.voidTypeName) {
-				ret.appendCode(HIRHelper.callProc(name.getName() + "_" + formalsLabel, actualList.size()));
-			} else {
-				ret.setAddress(HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY));
-				ret.appendCode(HIRHelper.callProc(ret.getAddress(), name.getName() + "_" + formalsLabel, actualList.size()));
-			}
-		} catch (CompilingException exception) {
+	String translate(TranslationAG ret, List<String> addrs) {
+		// Handle system call, of the address of its last actual
+		if (isSystemCall()) {
+			String addr = addrs.isEmpty() ? "" : addrs.get(addrs.size() - 1);
+			if (name.getNameId() == scanfId)
+				ret.appendCode(HIRHelper.readValue(addr));
+			else 
+				ret.appendCode(HIRHelper.writeValue(addr));
+			return "";
 		}
-		return ret;
+
+		if (fnType != null && fnType.getType().getName() == Type.voidTypeName) {
+			ret.appendCode(HIRHelper.callProc(label, actualList.size()));
+		} else if (fnType != null) {
+			String addr = HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY);
+			ret.appendCode(HIRHelper.callProc(addr, label, actualList.size()));
+			return addr;
+		}
+		return "";
 	}
 
     public int getLine() {
@@ -1084,13 +1495,29 @@ class CallExp extends Exp {
         return name.getChar();
     }
 
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.CALL);
+		out.id(name);
+		out.node(actualList);
+	}
+
     private Id name;
     private ActualList actualList;
+	private String label;         // translating: of the function called
+	private FunctionType fnType;  // and the function, if declared
+
+    private static final int scanfId = NamePool.intern("scanf");
+    private static final int printfId = NamePool.intern("printf");
 }
 
 class ActualList extends Ast {
 
-    public ActualList(LinkedList<Exp> exps) {
+    public ActualList(List<Exp> exps) {
+        this.exps = exps.isEmpty() ? NONE : exps.toArray(new Exp[exps.size()]);
+    }
+
+    // Takes exps over, which must not change afterwards
+    public ActualList(Exp[] exps) {
         this.exps = exps;
     }
 
@@ -1101,41 +1528,40 @@ class ActualList extends Ast {
         return type;
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG ret = new TranslationAG();
-		for (int idx = 0; idx < exps.size(); ++idx) {
-			TranslationAG temp = exps.get(idx).translate(symbolTable);
-			ret.appendCode(temp.getCode());
-			ret.appendCode(HIRHelper.setArgument(idx, temp.getAddress()));
-			ret.setAddress(temp.getAddress());
-		}
-		return ret;
+	public int size() {
+		return exps.length;
 	}
-	
-	public TranslationAG translateSystemCall(SymbolTable symbolTable) {
-		TranslationAG ret = new TranslationAG();
-		for (int idx = 0; idx < exps.size(); ++idx) {
-			TranslationAG temp = exps.get(idx).translate(symbolTable);
-			ret.appendCode(temp.getCode());
-			ret.setAddress(temp.getAddress());
-		}
-		return ret;
+
+	public Exp get(int idx) {
+		return exps[idx];
 	}
 
-	public int size() {
-		return exps.size();
+	public void write(AstSnapshot out) {
+		out.count(exps.length);
+		for (Exp item : exps)
+			out.exp(item);
 	}
 
-    // linked list of kids (Exps)
-    private LinkedList<Exp> exps;
+    // kids (Exps), exactly as many as parsed and never changed after
+    private Exp[] exps;
+
+    static final Exp[] NONE = new Exp[0];
 }
 
-abstract class UnaryExp extends Exp {
+abstract class UnaryExp extends CompositeExp {
 
     public UnaryExp(Exp exp) {
         this.exp = exp;
     }
 
+	int kids() {
+		return 1;
+	}
+
+	Exp kid(int i) {
+		return exp;
+	}
+
     public int getLine() {
         return exp.getLine();
     }
@@ -1147,7 +1573,7 @@ abstract class UnaryExp extends Exp {
     protected Exp exp;
 }
 
-abstract class BinaryExp extends Exp {
+abstract class BinaryExp extends CompositeExp {
 
     public BinaryExp(Exp exp1, Exp exp2) {
         this.exp1 = exp1;
@@ -1162,8 +1588,65 @@ abstract class BinaryExp extends Exp {
         return exp1.getChar();
     }
 
+	int kids() {
+		return 2;
+	}
+
+	Exp kid(int i) {
+		return i == 0 ? exp1 : exp2;
+	}
+
+	Type getType(SymbolTable symbolTable, List<Type> kidTypes) {
+		return getType(kidTypes.get(0), kidTypes.get(1));
+	}
+
+	// The type of the exp, given the types of exp1 and exp2
+	abstract Type getType(Type t1, Type t2);
+
+	void translateKid(TranslationAG ret, int i, String addr) {
+		if (i == 0 && rightLabel != null)
+			ret.appendCode(rightLabel + ":");
+	}
+
+	String translate(TranslationAG ret, List<String> addrs) {
+		return translate(ret, addrs.get(0), addrs.get(1));
+	}
+
+	// Appends the code of the exp itself to ret, after that of exp1 and
+	// exp2, whose addresses are addr1 and addr2, and returns its address.
+	// A CondExp has no address of its own and passes on that of exp1.
+	abstract String translate(TranslationAG ret, String addr1, String addr2);
+
     protected Exp exp1;
     protected Exp exp2;
+	protected String rightLabel; // And, Or: put between the code of exp1 and exp2
+}
+
+// BinaryExps translated to jumps to their true and false labels
+abstract class CondExp extends BinaryExp {
+
+    public CondExp(Exp exp1, Exp exp2) {
+        super(exp1, exp2);
+    }
+
+	public void setTrue(String label) {
+		trueLabel = label;
+	}
+
+	public String getTrue() {
+		return trueLabel;
+	}
+
+	public void setFalse(String label) {
+		falseLabel = label;
+	}
+
+	public String getFalse() {
+		return falseLabel;
+	}
+
+	private String trueLabel;
+	private String falseLabel;
 }
 
 
@@ -1176,23 +1659,23 @@ class UnaryMinusExp extends UnaryExp {
         super(exp);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type type = exp.getType(symbolTable);
-        if (type.getName() != Type.intTypeName) 
+    Type getType(SymbolTable symbolTable, List<Type> kidTypes) {
+        if (kidTypes.get(0).getName() != Type.intTypeName) 
             Errors.prompt(getLine(), getChar(),
                     new CompilingException(ExceptionType.SEMANTIC_ERROR,
                         "Expression must be of int type"));
         return Type.CreateSimpleType(Type.intTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag = exp.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag.getCode());
-		ret.setAddress(HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY));
-		ret.appendCode(HIRHelper.subtract(ret.getAddress(), "0", eag.getAddress()));
-		return ret;
+	String translate(TranslationAG ret, List<String> addrs) {
+		String addr = HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY);
+		ret.appendCode(HIRHelper.subtract(addr, "0", addrs.get(0)));
+		return addr;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.UNARY_MINUS);
+		out.exp(exp);
 	}
 }
 
@@ -1202,23 +1685,38 @@ class NotExp extends UnaryExp {
         super(exp);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type type = exp.getType(symbolTable);
-        if (type.getName() != Type.boolTypeName) 
+    Type getType(SymbolTable symbolTable, List<Type> kidTypes) {
+        if (kidTypes.get(0).getName() != Type.boolTypeName) 
             Errors.prompt(getLine(), getChar(),
                     new CompilingException(ExceptionType.SEMANTIC_ERROR,
                         "Expression must be of bool type"));
         return Type.CreateSimpleType(Type.boolTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		exp.setTrue(getFalse());
-		exp.setFalse(getTrue());
-		TranslationAG eag = exp.translate(symbolTable);
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag.getCode());
-		return ret;
+	void translateHead(SymbolTable symbolTable) {
+		exp.setTrue(falseLabel);
+		exp.setFalse(trueLabel);
+	}
+
+	String translate(TranslationAG ret, List<String> addrs) {
+		return "";
+	}
+
+	public void setTrue(String label) {
+		trueLabel = label;
 	}
+
+	public void setFalse(String label) {
+		falseLabel = label;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.NOT);
+		out.exp(exp);
+	}
+
+	private String trueLabel;
+	private String falseLabel;
 }
 
 class AddrOfExp extends UnaryExp {
@@ -1227,22 +1725,22 @@ class AddrOfExp extends UnaryExp {
         super(exp);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type type = exp.getType(symbolTable);
-        if (exp.getClass().getSimpleName() != "Id")
+    Type getType(SymbolTable symbolTable, List<Type> kidTypes) {
+        if (!(exp instanceof Id))
             Errors.prompt(getLine(), getChar(),
                     new CompilingException(ExceptionType.SEMANTIC_ERROR,
                         "Expression must be an identifier"));
-        return type;
+        return kidTypes.get(0);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG ret = new TranslationAG();
-		TranslationAG eag = exp.translate(symbolTable);
-		ret.appendCode(eag.getCode());
-
+	String translate(TranslationAG ret, List<String> addrs) {
 		// AddrOf has not been supported yet
-		return ret;
+		return "";
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.ADDR_OF);
+		out.exp(exp);
 	}
 }
 
@@ -1252,22 +1750,22 @@ class DeRefExp extends UnaryExp {
         super(exp);
     }
     
-    public Type getType(SymbolTable symbolTable) {
-        Type type = exp.getType(symbolTable);
-        if (exp.getClass().getSimpleName() != "Id")
+    Type getType(SymbolTable symbolTable, List<Type> kidTypes) {
+        if (!(exp instanceof Id))
             Errors.prompt(getLine(), getChar(),
                     new CompilingException(ExceptionType.SEMANTIC_ERROR,
                         "Expression must be an identifier"));
-        return type;
+        return kidTypes.get(0);
     }
 	
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG ret = new TranslationAG();
-		TranslationAG eag = exp.translate(symbolTable);
-		ret.appendCode(eag.getCode());
-
+	String translate(TranslationAG ret, List<String> addrs) {
 		// DeRefExp has not been supported yet
-		return ret;
+		return "";
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.DEREF);
+		out.exp(exp);
 	}
 }
 
@@ -1280,9 +1778,7 @@ class PlusExp extends BinaryExp {
         super(exp1, exp2);
     }
     
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
             return Type.CreateSimpleType(Type.intTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1291,16 +1787,16 @@ class PlusExp extends BinaryExp {
         return Type.CreateSimpleType(Type.intTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.setAddress(HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY));
-		ret.appendCode(HIRHelper.add(ret.getAddress(), eag1.getAddress(), eag2.getAddress()));
-		return ret;
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		String addr = HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY);
+		ret.appendCode(HIRHelper.add(addr, addr1, addr2));
+		return addr;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.PLUS);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 }
 
@@ -1310,9 +1806,7 @@ class MinusExp extends BinaryExp {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
             return Type.CreateSimpleType(Type.intTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1321,16 +1815,16 @@ class MinusExp extends BinaryExp {
         return Type.CreateSimpleType(Type.intTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.setAddress(HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY));
-		ret.appendCode(HIRHelper.subtract(ret.getAddress(), eag1.getAddress(), eag2.getAddress()));
-		return ret;
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		String addr = HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY);
+		ret.appendCode(HIRHelper.subtract(addr, addr1, addr2));
+		return addr;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.MINUS);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
@@ -1341,9 +1835,7 @@ class TimesExp extends BinaryExp {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
             return Type.CreateSimpleType(Type.intTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1352,16 +1844,16 @@ class TimesExp extends BinaryExp {
         return Type.CreateSimpleType(Type.intTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.setAddress(HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY));
-		ret.appendCode(HIRHelper.multiply(ret.getAddress(), eag1.getAddress(), eag2.getAddress()));
-		return ret;
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		String addr = HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY);
+		ret.appendCode(HIRHelper.multiply(addr, addr1, addr2));
+		return addr;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.TIMES);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
@@ -1372,9 +1864,7 @@ class DivideExp extends BinaryExp {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
             return Type.CreateSimpleType(Type.intTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1383,16 +1873,16 @@ class DivideExp extends BinaryExp {
         return Type.CreateSimpleType(Type.intTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.setAddress(HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY));
-		ret.appendCode(HIRHelper.divide(ret.getAddress(), eag1.getAddress(), eag2.getAddress()));
-		return ret;
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		String addr = HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY);
+		ret.appendCode(HIRHelper.divide(addr, addr1, addr2));
+		return addr;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.DIVIDE);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
@@ -1403,9 +1893,7 @@ class ModuloExp extends BinaryExp {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
             return Type.CreateSimpleType(Type.intTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1415,29 +1903,27 @@ class ModuloExp extends BinaryExp {
         return Type.CreateSimpleType(Type.intTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.setAddress(HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY));
-		ret.appendCode(HIRHelper.modulo(ret.getAddress(), eag1.getAddress(), eag2.getAddress()));
-		return ret;
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		String addr = HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY);
+		ret.appendCode(HIRHelper.modulo(addr, addr1, addr2));
+		return addr;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.MODULO);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
 
-class AndExp extends BinaryExp {
+class AndExp extends CondExp {
 
     public AndExp(Exp exp1, Exp exp2) {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.boolTypeName && t2.getName() == Type.boolTypeName) 
             return Type.CreateSimpleType(Type.boolTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1446,33 +1932,33 @@ class AndExp extends BinaryExp {
         return Type.CreateSimpleType(Type.boolTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		exp1.setTrue(HIRHelper.newLabel());
+	void translateHead(SymbolTable symbolTable) {
+		rightLabel = HIRHelper.newLabel();
+		exp1.setTrue(rightLabel);
 		exp1.setFalse(getFalse());
 		exp2.setTrue(getTrue());
 		exp2.setFalse(getFalse());
+	}
 
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(exp1.getTrue() + ":");
-		ret.appendCode(eag2.getCode());
-		return ret;
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		return addr1;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.AND);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
 
-class OrExp extends BinaryExp {
+class OrExp extends CondExp {
 
     public OrExp(Exp exp1, Exp exp2) {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.boolTypeName && t2.getName() == Type.boolTypeName) 
             return Type.CreateSimpleType(Type.boolTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1481,33 +1967,33 @@ class OrExp extends BinaryExp {
         return Type.CreateSimpleType(Type.boolTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
+	void translateHead(SymbolTable symbolTable) {
+		rightLabel = HIRHelper.newLabel();
 		exp1.setTrue(getTrue());
-		exp1.setFalse(HIRHelper.newLabel());
+		exp1.setFalse(rightLabel);
 		exp2.setTrue(getTrue());
 		exp2.setFalse(getFalse());
+	}
 
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(exp1.getFalse() + ":");
-		ret.appendCode(eag2.getCode());
-		return ret;
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		return addr1;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.OR);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
 
-class EqualsExp extends BinaryExp {
+class EqualsExp extends CondExp {
 
     public EqualsExp(Exp exp1, Exp exp2) {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
                 return Type.CreateSimpleType(Type.boolTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1516,29 +2002,27 @@ class EqualsExp extends BinaryExp {
         return Type.CreateSimpleType(Type.boolTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.appendCode(HIRHelper.jumpEqual(eag1.getAddress(), eag2.getAddress(), getTrue()));
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		ret.appendCode(HIRHelper.jumpEqual(addr1, addr2, getTrue()));
 		ret.appendCode(HIRHelper.jump(getFalse()));
-		return ret;
+		return addr1;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.EQUALS);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
 
-class NotEqualsExp extends BinaryExp {
+class NotEqualsExp extends CondExp {
 
     public NotEqualsExp(Exp exp1, Exp exp2) {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
                 return Type.CreateSimpleType(Type.boolTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1547,29 +2031,27 @@ class NotEqualsExp extends BinaryExp {
         return Type.CreateSimpleType(Type.boolTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.appendCode(HIRHelper.jumpNotEqual(eag1.getAddress(), eag2.getAddress(), getTrue()));
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		ret.appendCode(HIRHelper.jumpNotEqual(addr1, addr2, getTrue()));
 		ret.appendCode(HIRHelper.jump(getFalse()));
-		return ret;
+		return addr1;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.NOT_EQUALS);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
 
-class LessExp extends BinaryExp {
+class LessExp extends CondExp {
 
     public LessExp(Exp exp1, Exp exp2) {
         super(exp1, exp2);
     }
     
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
             return Type.CreateSimpleType(Type.boolTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1578,29 +2060,27 @@ class LessExp extends BinaryExp {
         return Type.CreateSimpleType(Type.boolTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.appendCode(HIRHelper.jumpLess(eag1.getAddress(), eag2.getAddress(), getTrue()));
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		ret.appendCode(HIRHelper.jumpLess(addr1, addr2, getTrue()));
 		ret.appendCode(HIRHelper.jump(getFalse()));
-		return ret;
+		return addr1;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.LESS);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
 
-class GreaterExp extends BinaryExp {
+class GreaterExp extends CondExp {
 
     public GreaterExp(Exp exp1, Exp exp2) {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
             return Type.CreateSimpleType(Type.boolTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1609,29 +2089,27 @@ class GreaterExp extends BinaryExp {
         return Type.CreateSimpleType(Type.boolTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.appendCode(HIRHelper.jumpLess(eag2.getAddress(), eag1.getAddress(), getTrue()));
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		ret.appendCode(HIRHelper.jumpLess(addr2, addr1, getTrue()));
 		ret.appendCode(HIRHelper.jump(getFalse()));
-		return ret;
+		return addr1;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.GREATER);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
 
-class LessEqExp extends BinaryExp {
+class LessEqExp extends CondExp {
 
     public LessEqExp(Exp exp1, Exp exp2) {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
             return Type.CreateSimpleType(Type.boolTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1640,29 +2118,27 @@ class LessEqExp extends BinaryExp {
         return Type.CreateSimpleType(Type.boolTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.appendCode(HIRHelper.jumpLessOrEqual(eag1.getAddress(), eag2.getAddress(), getTrue()));
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		ret.appendCode(HIRHelper.jumpLessOrEqual(addr1, addr2, getTrue()));
 		ret.appendCode(HIRHelper.jump(getFalse()));
-		return ret;
+		return addr1;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.LESS_EQ);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
 
-class GreaterEqExp extends BinaryExp {
+class GreaterEqExp extends CondExp {
 
     public GreaterEqExp(Exp exp1, Exp exp2) {
         super(exp1, exp2);
     }
 
-    public Type getType(SymbolTable symbolTable) {
-        Type t1 = exp1.getType(symbolTable);
-        Type t2 = exp2.getType(symbolTable);
+    Type getType(Type t1, Type t2) {
         if (t1 != null && t2 != null && t1.getName() == Type.intTypeName && t2.getName() == Type.intTypeName) 
                 return Type.CreateSimpleType(Type.boolTypeName);
         Errors.prompt(getLine(), getChar(),
@@ -1671,100 +2147,189 @@ class GreaterEqExp extends BinaryExp {
         return Type.CreateSimpleType(Type.boolTypeName);
     }
 
-	public TranslationAG translate(SymbolTable symbolTable) {
-		TranslationAG eag1 = exp1.translate(symbolTable);
-		TranslationAG eag2 = exp2.translate(symbolTable);
-		
-		TranslationAG ret = new TranslationAG();
-		ret.appendCode(eag1.getCode());
-		ret.appendCode(eag2.getCode());
-		ret.appendCode(HIRHelper.jumpLessOrEqual(eag2.getAddress(), eag1.getAddress(), getTrue()));
+	String translate(TranslationAG ret, String addr1, String addr2) {
+		ret.appendCode(HIRHelper.jumpLessOrEqual(addr2, addr1, getTrue()));
 		ret.appendCode(HIRHelper.jump(getFalse()));
-		return ret;
+		return addr1;
+	}
+
+	public void write(AstSnapshot out) {
+		out.tag(AstSnapshot.GREATER_EQ);
+		out.exp(exp1);
+		out.exp(exp2);
 	}
 
 }
 
 // **********************************************************************
 // Symbol Table
+//
+// One table holds every scope of a pass. Each name (by NamePool id) has a
+// stack of its entries in an open-addressing map, the innermost scope's
+// on top, so a lookup costs the same at any depth of nesting. The names
+// added in a scope are recorded in an undo log, and exitScope pops their
+// entries again.
 // **********************************************************************
 class SymbolTable {
-    private SymbolTable root;
-    private SymbolTable parent;
-    private TreeMap<String, List<ObjectType>> table;
 
     public SymbolTable() {
-        parent = null;
-        root = this;
-        table = new TreeMap<String, List<ObjectType>>();
+        keys = new int[INITIAL_CAPACITY];
+        Arrays.fill(keys, EMPTY);
+        tops = new Entry[INITIAL_CAPACITY];
+        log = new int[INITIAL_CAPACITY];
+        marks = new int[INITIAL_CAPACITY];
     }
 
-    public int size() {
-        return table.size();
+    // Opens a scope inside the current one; the global scope is open from
+    // the start and never closed
+    public void enterScope() {
+        if (++depth == marks.length)
+            marks = Arrays.copyOf(marks, 2 * marks.length);
+        marks[depth] = logSize;
     }
 
-    public void setParent(SymbolTable parent) {
-        this.parent = parent;
-        this.root = parent.root;
+    public void exitScope() {
+        while (logSize > marks[depth]) {
+            int slot = find(log[--logSize]);
+            tops[slot] = tops[slot].below;
+        }
+        depth--;
     }
 
-    public SymbolTable getParent() {
-        return parent;
+    // Adds an entry to the current scope
+    public void addEntry(int nameId, ObjectType type) throws CompilingException {
+        addEntry(nameId, type, depth);
     }
 
-    public void addEntry(String name, ObjectType type) throws CompilingException {
-        if (type instanceof FunctionType) {
-            boolean legal = true;
-            List<ObjectType> list;
-            if (table.containsKey(name)) {
-                list = table.get(name);
-                for (ObjectType item : list) 
-                    if (item instanceof VariableType || // This entry is variable 
-                        !(!((FunctionType)type).getParams().equals(((FunctionType)item).getParams()) || // This entry is different from the existing entries
-                          (!((FunctionType)type).isPreDecl() && ((FunctionType)item).isPreDecl()))) // This entry is not a pre-decl function but the existing one is
-                        throw new CompilingException(
-                                ExceptionType.SEMANTIC_ERROR,
-                                "Function " + name + " has already been declared");    
-            } else
-                list = new LinkedList<ObjectType>();
-            list.add(type);
-            table.put(name, list);
-        } else {
-            if (table.containsKey(name)) // If there exists any entry with the same name, throw an error
+    // Adds an entry to the global scope from any depth, as a function is
+    // declared after its formals are checked in its own scope
+    public void addGlobalEntry(int nameId, ObjectType type) throws CompilingException {
+        addEntry(nameId, type, 0);
+    }
+
+    // The variable of the innermost scope that declares one, or null
+    public VariableType lookupVariable(int nameId) {
+        int slot = find(nameId);
+        if (slot < 0)
+            return null;
+        for (Entry item = tops[slot]; item != null; item = item.below)
+            if (item.type instanceof VariableType)
+                return (VariableType)item.type;
+        return null;
+    }
+
+    // The global function first declared with these params, or null
+    public FunctionType lookupFunction(int nameId, List<Type> params) {
+        int slot = find(nameId);
+        if (slot < 0)
+            return null;
+        FunctionType ret = null;
+        for (Entry item = tops[slot]; item != null; item = item.below)
+            if (item.depth == 0 && item.type instanceof FunctionType && ((FunctionType)item.type).getParams().equals(params))
+                ret = (FunctionType)item.type;
+        return ret;
+    }
+
+    private void addEntry(int nameId, ObjectType type, int scope) throws CompilingException {
+        String name = NamePool.getName(nameId);
+        int slot = find(nameId);
+        if (slot < 0)
+            slot = insert(nameId);
+        // only the entries of the same scope can clash
+        for (Entry item = tops[slot]; item != null; item = item.below) {
+            if (item.depth != scope)
+                continue;
+            if (!(type instanceof FunctionType)) // If there exists any entry with the same name, throw an error
                 throw new CompilingException(
                         ExceptionType.SEMANTIC_ERROR,
                         "Variable " + name + " has already been declared");
-            LinkedList<ObjectType> list = new LinkedList<ObjectType>();
-            list.add(type);
-            table.put(name, list);    
+            if (item.type instanceof VariableType || // This entry is variable 
+                !(!((FunctionType)type).getParams().equals(((FunctionType)item.type).getParams()) || // This entry is different from the existing entries
+                  (!((FunctionType)type).isPreDecl() && ((FunctionType)item.type).isPreDecl()))) // This entry is not a pre-decl function but the existing one is
+                throw new CompilingException(
+                        ExceptionType.SEMANTIC_ERROR,
+                        "Function " + name + " has already been declared");    
+        }
+
+        // under the entries of any deeper scope
+        Entry above = null;
+        Entry below = tops[slot];
+        while (below != null && below.depth > scope) {
+            above = below;
+            below = below.below;
+        }
+        Entry entry = new Entry(type, scope, below);
+        if (above == null)
+            tops[slot] = entry;
+        else
+            above.below = entry;
+        if (scope > 0) {
+            if (logSize == log.length)
+                log = Arrays.copyOf(log, 2 * log.length);
+            log[logSize++] = nameId;
         }
     }
 
-    public VariableType getVariableType(String name) throws CompilingException {
-        List<ObjectType> list = table.get(name);
-        if (list != null)
-            for (ObjectType item : list)
-                if (item instanceof VariableType)
-                    return (VariableType)item;
-        throw new CompilingException(
-                ExceptionType.SEMANTIC_ERROR,
-                "Variable " + name + " has not been declared");
+    private int find(int nameId) {
+        int mask = keys.length - 1;
+        for (int slot = nameId & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask)
+            if (keys[slot] == nameId)
+                return slot;
+        return -1;
+    }
+
+    // Adds a key for nameId, whose stack stays empty until an entry is
+    // pushed; keys are never removed, a popped name just has no entries
+    private int insert(int nameId) {
+        if (2 * (size + 1) > keys.length) {
+            int[] oldKeys = keys;
+            Entry[] oldTops = tops;
+            keys = new int[2 * oldKeys.length];
+            Arrays.fill(keys, EMPTY);
+            tops = new Entry[keys.length];
+            for (int i = 0; i < oldKeys.length; ++i)
+                if (oldKeys[i] != EMPTY)
+                    tops[place(oldKeys[i])] = oldTops[i];
+        }
+        size++;
+        return place(nameId);
     }
 
-    public FunctionType getFunctionType(String name, List<Type> params) throws CompilingException {
-        List<ObjectType> list = table.get(name);
-        if (list != null) 
-            for (ObjectType item : list) 
-                if (item instanceof FunctionType && ((FunctionType)item).getParams().equals(params))
-                    return (FunctionType)item;
-        throw new CompilingException(
-                ExceptionType.SEMANTIC_ERROR,
-                "Function " + name + " has not been declared");
+    private int place(int nameId) {
+        int mask = keys.length - 1;
+        int slot = nameId & mask;
+        while (keys[slot] != EMPTY)
+            slot = (slot + 1) & mask;
+        keys[slot] = nameId;
+        return slot;
     }
 
-    public SymbolTable getGlobalScope() {
-        return root;
+    // One declaration of a name, on its stack
+    private static final class Entry {
+
+        Entry(ObjectType type, int depth, Entry below) {
+            this.type = type;
+            this.depth = depth;
+            this.below = below;
+        }
+
+        final ObjectType type;
+        final int depth; // of its scope, 0 for global
+        Entry below;     // the entry it shadows, or an older one of its scope
     }
+
+    // open-addressing map from NamePool id to the top of its stack
+    private int[] keys;
+    private Entry[] tops;
+    private int size;
+
+    private int depth = 0;
+    private int[] log;     // the names added in the open scopes, in order
+    private int logSize = 0;
+    private int[] marks;   // marks[d]: logSize when scope d was opened
+
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 8;
 }
 
 class ObjectType {
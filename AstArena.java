@@ -0,0 +1,1192 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+// **********************************************************************
+// AstArena
+//
+// Data-oriented form of a Program for checking and translating: a node is
+// an index into parallel arrays
+//
+//     kind      the AstSnapshot tag of the node, or one of the list kinds
+//               below that the snapshot leaves implicit
+//     child     first child, or NONE; for a leaf (ID, INT_LIT,
+//               STRING_LIT) the index of its line and char in positions,
+//               packed as in BasicExp
+//     next      next sibling, or NONE
+//     payload   per kind: the NamePool id of an ID, the value of an
+//               INT_LIT, the index of a STRING_LIT in literals, the index
+//               of the type of a decl in types, the target of a REF
+//
+// Nodes are numbered in pre-order, so a pass over the tree walks the
+// arrays forwards. The children of each kind, in order:
+//
+//     DECL_LIST, STMT_LIST    the decls, the stmts
+//     VAR_DECL                ID
+//     FN_DECL                 ID, FORMALS, DECL_LIST, STMT_LIST
+//     FN_PRE_DECL             ID, FORMALS
+//     FORMALS                 FORMAL (an ID, with the type in its payload)
+//     stmts and exps          as the constructor arguments of their class;
+//                             a CALL has its name ID then the actuals
+//
+// An Exp shared by the parsed tree (see AstSnapshot) is a REF node the
+// second time, so the arena keeps the sharing and the passes see the same
+// node twice, as the classes do.
+//
+// check() and translate() are the passes of Ast.java written as loops and
+// switches on kind. They report the same diagnostics and produce the same
+// HIR, and are selected with Checker -flat-ast. They walk nested blocks
+// and exps (operators, subscripts and call arguments alike) with explicit
+// stacks, as the classes do, so no program is too deep for them. AstArenaBench compares them with
+// the classes.
+// **********************************************************************
+class AstArena {
+
+	public static AstArena build(Program program) throws IOException {
+		return read(AstSnapshot.write(program));
+	}
+
+	public static AstArena read(byte[] snapshot) throws IOException {
+		AstArena ret = new AstArena();
+		ret.in = AstSnapshot.open(snapshot);
+		ret.root = ret.readTree();
+		ret.in.close();
+		ret.in = null;
+		ret.expNodes = null;
+		ret.typeIndexes = null;
+		ret.trim();
+		return ret;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	// Bytes held by the node arrays
+	public long arrayBytes() {
+		return (long) kind.length * (1 + 4 + 4 + 4) + (long) positions.length * 8;
+	}
+
+	// ****************************************************************
+	// Semantic checking
+	// ****************************************************************
+
+	public void check() {
+		checkDecls(root, new SymbolTable());
+	}
+
+	private void checkDecls(int list, SymbolTable symbolTable) {
+		for (int decl = child[list]; decl != NONE; decl = next[decl]) {
+			int name = child[decl];
+			Type type = types[payload[decl]];
+			switch (kind[decl]) {
+				case AstSnapshot.VAR_DECL:
+					if (type.getName() == Type.voidTypeName)
+						Errors.prompt(line(name), charNum(name),
+								new CompilingException(ExceptionType.SEMANTIC_WARNING,
+									"Variable " + NamePool.getName(payload[name]) + " cannot be of void type"));
+					addEntry(symbolTable, name, new VariableType(type));
+					break;
+				case AstSnapshot.FN_DECL: {
+					int formals = next[name];
+					int decls = next[formals];
+					symbolTable.enterScope();
+					checkFormals(formals, symbolTable);
+					try {
+						symbolTable.addGlobalEntry(payload[name], new FunctionType(type, formalTypes(formals), false));
+					} catch (CompilingException exception) {
+						Errors.prompt(line(name), charNum(name), exception);
+					}
+					int outer = function;
+					function = decl;
+					checkDecls(decls, symbolTable);
+					checkStmts(next[decls], symbolTable);
+					function = outer;
+					symbolTable.exitScope();
+					break;
+				}
+				case AstSnapshot.FN_PRE_DECL:
+					symbolTable.enterScope();
+					checkFormals(next[name], symbolTable);
+					symbolTable.exitScope();
+					addEntry(symbolTable, name, new FunctionType(type, formalTypes(next[name]), true));
+					break;
+			}
+		}
+	}
+
+	private void checkFormals(int formals, SymbolTable symbolTable) {
+		for (int formal = child[formals]; formal != NONE; formal = next[formal]) {
+			Type type = types[payload[formal]];
+			int name = child[formal];
+			if (type.getName() == Type.voidTypeName && type.getNumPointers() == 0)
+				Errors.prompt(line(name), charNum(name),
+						new CompilingException(ExceptionType.SEMANTIC_ERROR,
+							"Variable " + NamePool.getName(payload[name]) + " cannot be of void type"));
+			addEntry(symbolTable, name, new VariableType(type));
+		}
+	}
+
+	// The stmts of list. The blocks nested in them are walked with a stack
+	// of Frames, as StmtList.check walks them, so that no depth of nesting
+	// can overflow the thread's stack.
+	private void checkStmts(int list, SymbolTable symbolTable) {
+		ArrayList<Frame> stack = new ArrayList<Frame>();
+		stack.add(new Frame(child[list], false));
+		while (!stack.isEmpty()) {
+			Frame top = stack.get(stack.size() - 1);
+			if (top.stmt == NONE) {
+				stack.remove(stack.size() - 1);
+				if (top.scoped)
+					symbolTable.exitScope();
+				continue;
+			}
+			int stmt = top.stmt;
+			if (top.block < 0)
+				checkStmt(stmt, symbolTable);
+			if (++top.block < blockCount(stmt)) {
+				// a block's DECL_LIST and the STMT_LIST after it, in a scope
+				// of their own
+				int decls = blockDecls(stmt, top.block);
+				symbolTable.enterScope();
+				checkDecls(decls, symbolTable);
+				stack.add(new Frame(child[next[decls]], true));
+			} else {
+				top.stmt = next[stmt];
+				top.block = -1;
+			}
+		}
+	}
+
+	// A stmt, or the head of a compound stmt: all but its blocks
+	private void checkStmt(int stmt, SymbolTable symbolTable) {
+		int first = child[stmt];
+		switch (kind[stmt]) {
+			case AstSnapshot.ASSIGN:
+				if (!typeOf(first, symbolTable).equals(typeOf(next[first], symbolTable)))
+					Errors.prompt(line(first), charNum(first),
+							new CompilingException(ExceptionType.SEMANTIC_ERROR,
+								"Illegal assignment (Both lhs and expression must be of the same type)"));
+				break;
+			case AstSnapshot.IF:
+			case AstSnapshot.WHILE:
+			case AstSnapshot.IF_ELSE:
+				checkCondition(first, symbolTable);
+				break;
+			case AstSnapshot.FOR: {
+				int cond = next[first];
+				checkStmt(first, symbolTable);
+				checkCondition(cond, symbolTable);
+				checkStmt(next[cond], symbolTable);
+				break;
+			}
+			case AstSnapshot.CALL_STMT:
+				typeOf(first, symbolTable);
+				break;
+			case AstSnapshot.RETURN: {
+				Type fnType = types[payload[function]];
+				int fnName = child[function];
+				if (kind[first] == AstSnapshot.NULL) {
+					if (fnType.getName() != Type.voidTypeName)
+						Errors.prompt(line(fnName), charNum(fnName),
+								new CompilingException(ExceptionType.SEMANTIC_ERROR,
+									"Illegal return statement"));
+				} else if (!fnType.equals(typeOf(first, symbolTable))) {
+					Errors.prompt(line(first), charNum(fnName),
+							new CompilingException(ExceptionType.SEMANTIC_ERROR,
+								"Illegal return statement"));
+				}
+				break;
+			}
+		}
+	}
+
+	private void checkCondition(int exp, SymbolTable symbolTable) {
+		if (typeOf(exp, symbolTable).getName() != Type.boolTypeName)
+			Errors.prompt(line(exp), charNum(exp),
+					new CompilingException(ExceptionType.SEMANTIC_ERROR,
+						"Condition expression must be of bool type"));
+	}
+
+	// The type of exp. The exps under it are walked with a stack, so that
+	// no chain or nesting of operators, subscripts or calls can overflow
+	// the thread's stack
+	private Type typeOf(int exp, SymbolTable symbolTable) {
+		exp = target(exp);
+		if (isLeaf(exp))
+			return leafType(exp, symbolTable);
+		int[] stack = new int[24]; // per level: node, kid to walk next, types.size() at its start
+		int depth = 0;
+		ArrayList<Type> types = new ArrayList<Type>();
+		stack[depth++] = exp;
+		stack[depth++] = typedOperand(exp);
+		stack[depth++] = 0;
+		while (depth > 0) {
+			int kid = stack[depth - 2];
+			if (kid == NONE) {
+				depth -= 3;
+				List<Type> kidTypes = types.subList(stack[depth + 2], types.size());
+				Type type = compositeType(stack[depth], kidTypes, symbolTable);
+				kidTypes.clear();
+				types.add(type);
+				continue;
+			}
+			stack[depth - 2] = next[kid];
+			int operand = target(kid);
+			if (isLeaf(operand))
+				types.add(leafType(operand, symbolTable));
+			else {
+				if (depth == stack.length)
+					stack = Arrays.copyOf(stack, 2 * depth);
+				stack[depth++] = operand;
+				stack[depth++] = typedOperand(operand);
+				stack[depth++] = types.size();
+			}
+		}
+		return types.get(0);
+	}
+
+	// The first kid of a composite exp that its type is taken from; the
+	// actuals of a system call are not checked
+	private int typedOperand(int exp) {
+		if (kind[exp] == AstSnapshot.CALL && isSystemCall(exp))
+			return NONE;
+		return firstOperand(exp);
+	}
+
+	// The type of an INT_LIT, STRING_LIT or ID
+	private Type leafType(int exp, SymbolTable symbolTable) {
+		switch (kind[exp]) {
+			case AstSnapshot.INT_LIT:
+				return INT;
+			case AstSnapshot.STRING_LIT:
+				return STRING;
+			default:
+				VariableType varType = symbolTable.lookupVariable(payload[exp]);
+				if (varType != null)
+					return varType.getType();
+				Errors.prompt(line(exp), charNum(exp),
+						new CompilingException(ExceptionType.SEMANTIC_ERROR,
+							"Variable " + NamePool.getName(payload[exp]) + " has not been declared"));
+				return ERROR;
+		}
+	}
+
+	// The type of a composite exp, given those of the kids typeOf walked
+	private Type compositeType(int exp, List<Type> kidTypes, SymbolTable symbolTable) {
+		int first = child[exp];
+		switch (kind[exp]) {
+			case AstSnapshot.ARRAY:
+				if (kidTypes.get(1).getName() != Type.intTypeName)
+					Errors.prompt(line(exp), charNum(exp),
+							new CompilingException(ExceptionType.SEMANTIC_ERROR,
+								"Index operand must be of int type"));
+				return kidTypes.get(0);
+			case AstSnapshot.CALL: {
+				if (isSystemCall(exp)) {
+					if (payload[exp] > 1)
+						Errors.prompt(line(exp), charNum(exp),
+								new CompilingException(ExceptionType.SEMANTIC_ERROR, "Invalid parameters"));
+					return VOID;
+				}
+				FunctionType fnType = symbolTable.lookupFunction(payload[first], new LinkedList<Type>(kidTypes));
+				if (fnType != null)
+					return fnType.getType();
+				Errors.prompt(line(exp), charNum(exp),
+						new CompilingException(ExceptionType.SEMANTIC_ERROR,
+							"Function " + NamePool.getName(payload[first]) + " has not been declared"));
+				return ERROR;
+			}
+			case AstSnapshot.UNARY_MINUS:
+				if (kidTypes.get(0).getName() != Type.intTypeName)
+					Errors.prompt(line(exp), charNum(exp),
+							new CompilingException(ExceptionType.SEMANTIC_ERROR,
+								"Expression must be of int type"));
+				return INT;
+			case AstSnapshot.NOT:
+				if (kidTypes.get(0).getName() != Type.boolTypeName)
+					Errors.prompt(line(exp), charNum(exp),
+							new CompilingException(ExceptionType.SEMANTIC_ERROR,
+								"Expression must be of bool type"));
+				return BOOL;
+			case AstSnapshot.ADDR_OF:
+			case AstSnapshot.DEREF:
+				if (kind[target(first)] != AstSnapshot.ID)
+					Errors.prompt(line(exp), charNum(exp),
+							new CompilingException(ExceptionType.SEMANTIC_ERROR,
+								"Expression must be an identifier"));
+				return kidTypes.get(0);
+		}
+		if (isBinary(exp))
+			return binaryType(exp, kidTypes.get(0), kidTypes.get(1));
+		throw new IllegalStateException("node " + exp + " of kind " + kind[exp] + " is not an Exp");
+	}
+
+	// The type of a binary operator, given those of its operands
+	private Type binaryType(int exp, Type t1, Type t2) {
+		String typeName = Type.intTypeName;
+		Type ret = BOOL;
+		switch (kind[exp]) {
+			case AstSnapshot.PLUS:
+			case AstSnapshot.MINUS:
+			case AstSnapshot.TIMES:
+			case AstSnapshot.DIVIDE:
+			case AstSnapshot.MODULO:
+				ret = INT;
+				break;
+			case AstSnapshot.AND:
+			case AstSnapshot.OR:
+				typeName = Type.boolTypeName;
+				break;
+		}
+		if (t1.getName() != typeName || t2.getName() != typeName)
+			Errors.prompt(line(exp), charNum(exp),
+					new CompilingException(ExceptionType.SEMANTIC_ERROR,
+						"Illegal expression (All operands must be of " + typeName + " type)"));
+		return ret;
+	}
+
+	private LinkedList<Type> actualTypes(int call, SymbolTable symbolTable) {
+		LinkedList<Type> ret = new LinkedList<Type>();
+		for (int actual = next[child[call]]; actual != NONE; actual = next[actual])
+			ret.add(typeOf(actual, symbolTable));
+		return ret;
+	}
+
+	private LinkedList<Type> formalTypes(int formals) {
+		LinkedList<Type> ret = new LinkedList<Type>();
+		for (int formal = child[formals]; formal != NONE; formal = next[formal])
+			ret.add(types[payload[formal]]);
+		return ret;
+	}
+
+	private void addEntry(SymbolTable symbolTable, int name, ObjectType type) {
+		try {
+			symbolTable.addEntry(payload[name], type);
+		} catch (CompilingException exception) {
+			Errors.prompt(line(name), charNum(name), exception);
+		}
+	}
+
+	// ****************************************************************
+	// Translating
+	// ****************************************************************
+
+	public TranslationAG translate() {
+		HIRHelper.newLabel(); // ~0, reserved as by Program.translate
+		literalsUsed = new ArrayList<String>();
+		indexAddresses = new HashMap<Integer, String>();
+		out = new StringBuilder();
+		translateDecls(root, new SymbolTable(), Scope.GLOBAL);
+
+		TranslationAG ret = new TranslationAG();
+		for (String item : literalsUsed)
+			ret.appendCode(HIRHelper.addConst(item));
+		ret.appendCode(HIRHelper.setEntry("main_", HIRHelper.countGlobal()));
+		ret.appendCode(out);
+		out = null;
+		return ret;
+	}
+
+	// All code goes to out, in the order of the HIR; code that is
+	// translated before it is placed (a function's body before its header,
+	// a for stmt's incr before its body) goes to a buffer of its own first
+	private void emit(String code) {
+		out.append(code).append('\n');
+	}
+
+	private void translateDecls(int list, SymbolTable symbolTable, Scope scope) {
+		for (int decl = child[list]; decl != NONE; decl = next[decl]) {
+			int name = child[decl];
+			Type type = types[payload[decl]];
+			if (kind[decl] == AstSnapshot.VAR_DECL) {
+				VariableType varType = new VariableType(type, HIRHelper.newVariable(scope), scope);
+				try {
+					symbolTable.addEntry(payload[name], varType);
+				} catch (CompilingException exception) {
+				}
+			} else if (kind[decl] == AstSnapshot.FN_DECL) {
+				int formals = next[name];
+				int decls = next[formals];
+				HIRHelper.reset();
+				try {
+					symbolTable.addEntry(payload[name], new FunctionType(type, formalTypes(formals), false));
+				} catch (CompilingException exception) {
+				}
+				symbolTable.enterScope();
+				for (int formal = child[formals]; formal != NONE; formal = next[formal]) {
+					VariableType varType = new VariableType(types[payload[formal]],
+							HIRHelper.newVariable(Scope.PARAM), Scope.PARAM);
+					try {
+						symbolTable.addEntry(payload[child[formal]], varType);
+					} catch (CompilingException exception) {
+					}
+				}
+
+				StringBuilder outer = out;
+				out = new StringBuilder();
+				function = decl;
+				translateDecls(decls, symbolTable, Scope.LOCAL);
+				translateStmts(next[decls], symbolTable);
+				symbolTable.exitScope();
+				StringBuilder body = out;
+				out = outer;
+
+				String label = functionLabel(decl);
+				emit(HIRHelper.beginFunction(label, HIRHelper.countLocal(), HIRHelper.countTemporary()));
+				out.append(body);
+				emit(HIRHelper.endFunction(label));
+			}
+		}
+	}
+
+	// The stmts of list, with the blocks nested in them walked on a stack
+	// of Frames, as StmtList.translate walks them
+	private void translateStmts(int list, SymbolTable symbolTable) {
+		ArrayList<Frame> stack = new ArrayList<Frame>();
+		stack.add(new Frame(child[list], false));
+		while (!stack.isEmpty()) {
+			Frame top = stack.get(stack.size() - 1);
+			if (top.stmt == NONE) {
+				stack.remove(stack.size() - 1);
+				if (top.scoped)
+					symbolTable.exitScope();
+				continue;
+			}
+			int stmt = top.stmt;
+			if (top.block < 0) {
+				top.nextLabel = HIRHelper.newLabel();
+				top.start = out.length();
+				translateStmt(stmt, symbolTable, top);
+			} else
+				translateAfterBlock(top);
+			if (++top.block < blockCount(stmt)) {
+				int decls = blockDecls(stmt, top.block);
+				symbolTable.enterScope();
+				translateDecls(decls, symbolTable, Scope.LOCAL);
+				stack.add(new Frame(child[next[decls]], true));
+				continue;
+			}
+			if (out.length() > top.start)
+				emit(top.nextLabel + ":");
+			top.stmt = next[stmt];
+			top.block = -1;
+			top.incrCode = null;
+		}
+	}
+
+	// A stmt, or the head of a compound stmt up to its first block, with
+	// the labels that the rest of it needs kept in frame
+	private void translateStmt(int stmt, SymbolTable symbolTable, Frame frame) {
+		int first = child[stmt];
+		String nextLabel = frame == null ? null : frame.nextLabel;
+		switch (kind[stmt]) {
+			case AstSnapshot.ASSIGN: {
+				int lhs = target(first);
+				if (kind[lhs] == AstSnapshot.ARRAY)
+					results.set(lhs);
+				String lhsAddr = translateExp(first, symbolTable, null, null);
+				String expAddr = translateExp(next[first], symbolTable, null, null);
+				if (kind[lhs] == AstSnapshot.ARRAY)
+					emit(HIRHelper.assignArray(lhsAddr, indexAddresses.get(lhs), expAddr));
+				else
+					emit(HIRHelper.assign(lhsAddr, expAddr));
+				break;
+			}
+			case AstSnapshot.IF: {
+				String trueLabel = HIRHelper.newLabel();
+				translateExp(first, symbolTable, trueLabel, nextLabel);
+				emit(trueLabel + ":");
+				break;
+			}
+			case AstSnapshot.IF_ELSE: {
+				String trueLabel = HIRHelper.newLabel();
+				frame.falseLabel = HIRHelper.newLabel();
+				translateExp(first, symbolTable, trueLabel, frame.falseLabel);
+				emit(trueLabel + ":");
+				break;
+			}
+			case AstSnapshot.WHILE: {
+				frame.loopLabel = HIRHelper.newLabel();
+				String trueLabel = HIRHelper.newLabel();
+				emit(frame.loopLabel + ":");
+				translateExp(first, symbolTable, trueLabel, nextLabel);
+				emit(trueLabel + ":");
+				break;
+			}
+			case AstSnapshot.FOR: {
+				int cond = next[first];
+				frame.loopLabel = HIRHelper.newLabel();
+				String trueLabel = HIRHelper.newLabel();
+				translateStmt(first, symbolTable, null);
+				emit(frame.loopLabel + ":");
+				translateExp(cond, symbolTable, trueLabel, nextLabel);
+
+				StringBuilder outer = out;
+				out = new StringBuilder();
+				translateStmt(next[cond], symbolTable, null);
+				frame.incrCode = out;
+				out = outer;
+
+				emit(trueLabel + ":");
+				break;
+			}
+			case AstSnapshot.CALL_STMT:
+				translateExp(first, symbolTable, null, null);
+				break;
+			case AstSnapshot.RETURN:
+				if (kind[first] == AstSnapshot.NULL)
+					emit(HIRHelper.returnFn(functionLabel(function)));
+				else
+					emit(HIRHelper.returnFn(functionLabel(function), translateExp(first, symbolTable, null, null)));
+				break;
+		}
+	}
+
+	// The code of a compound stmt after its block frame.block
+	private void translateAfterBlock(Frame frame) {
+		switch (kind[frame.stmt]) {
+			case AstSnapshot.IF_ELSE:
+				if (frame.block == 0) {
+					emit(HIRHelper.jump(frame.nextLabel));
+					emit(frame.falseLabel + ":");
+				}
+				break;
+			case AstSnapshot.WHILE:
+				emit(HIRHelper.jump(frame.loopLabel));
+				break;
+			case AstSnapshot.FOR:
+				out.append(frame.incrCode);
+				emit(HIRHelper.jump(frame.loopLabel));
+				break;
+		}
+	}
+
+	// Emits the code of exp and returns its address ("" if it has none);
+	// the exps translated to jumps go to trueLabel or falseLabel. The exps
+	// under exp are walked with a stack, as typeOf walks them.
+	private String translateExp(int exp, SymbolTable symbolTable, String trueLabel, String falseLabel) {
+		exp = target(exp);
+		if (isLeaf(exp))
+			return translateLeaf(exp, symbolTable);
+		ArrayList<ExpFrame> stack = new ArrayList<ExpFrame>();
+		stack.add(expFrame(exp, symbolTable, trueLabel, falseLabel));
+		for (;;) {
+			ExpFrame top = stack.get(stack.size() - 1);
+			if (top.kid == NONE) {
+				stack.remove(stack.size() - 1);
+				String addr = translateTail(top, symbolTable);
+				if (stack.isEmpty())
+					return addr;
+				afterOperand(stack.get(stack.size() - 1), addr);
+				continue;
+			}
+			int operand = target(top.kid);
+			top.kid = next[top.kid];
+
+			// the labels the operand jumps to, if it is a condition
+			String operandTrue = null;
+			String operandFalse = null;
+			switch (kind[top.exp]) {
+				case AstSnapshot.AND:
+					operandTrue = top.walked == 0 ? top.rightLabel : top.trueLabel;
+					operandFalse = top.falseLabel;
+					break;
+				case AstSnapshot.OR:
+					operandTrue = top.trueLabel;
+					operandFalse = top.walked == 0 ? top.rightLabel : top.falseLabel;
+					break;
+				case AstSnapshot.NOT:
+					operandTrue = top.falseLabel;
+					operandFalse = top.trueLabel;
+					break;
+			}
+			if (isLeaf(operand))
+				afterOperand(top, translateLeaf(operand, symbolTable));
+			else
+				stack.add(expFrame(operand, symbolTable, operandTrue, operandFalse));
+		}
+	}
+
+	// An INT_LIT, STRING_LIT or ID
+	private String translateLeaf(int exp, SymbolTable symbolTable) {
+		switch (kind[exp]) {
+			case AstSnapshot.INT_LIT:
+				return Integer.toString(payload[exp]);
+			case AstSnapshot.STRING_LIT:
+				literalsUsed.add(literals.get(payload[exp]));
+				return HIRHelper.getAddress(HIRHelper.newConst(), Scope.CONST);
+			default: {
+				VariableType varType = symbolTable.lookupVariable(payload[exp]);
+				return HIRHelper.getAddress(varType.getAddress(), varType.getScope());
+			}
+		}
+	}
+
+	// The frame of a composite exp, once what comes before its operands is
+	// done: the label between the operands of an AND or OR, and the
+	// types of the actuals of a call, which give the label it calls
+	private ExpFrame expFrame(int exp, SymbolTable symbolTable, String trueLabel, String falseLabel) {
+		ExpFrame ret = new ExpFrame(exp, trueLabel, falseLabel);
+		ret.kid = firstOperand(exp);
+		if (kind[exp] == AstSnapshot.AND || kind[exp] == AstSnapshot.OR)
+			ret.rightLabel = HIRHelper.newLabel();
+		else if (kind[exp] == AstSnapshot.CALL && !isSystemCall(exp))
+			ret.params = actualTypes(exp, symbolTable);
+		return ret;
+	}
+
+	// What follows each operand of the exp of frame, whose address is addr
+	private void afterOperand(ExpFrame frame, String addr) {
+		if (frame.walked++ == 0) {
+			frame.addr1 = addr;
+			if (frame.rightLabel != null)
+				emit(frame.rightLabel + ":");
+		}
+		frame.addr = addr;
+		if (frame.params != null)
+			emit(HIRHelper.setArgument(frame.walked - 1, addr));
+	}
+
+	// The code of a composite exp after its operands; returns its address
+	private String translateTail(ExpFrame frame, SymbolTable symbolTable) {
+		int exp = frame.exp;
+		switch (kind[exp]) {
+			case AstSnapshot.ARRAY: {
+				indexAddresses.put(exp, frame.addr);
+				if (results.get(exp))
+					return "";
+				String ret = temporary();
+				emit(HIRHelper.getArray(ret, frame.addr1, frame.addr));
+				return ret;
+			}
+			case AstSnapshot.CALL:
+				return translateCall(frame, symbolTable);
+			case AstSnapshot.UNARY_MINUS: {
+				String ret = temporary();
+				emit(HIRHelper.subtract(ret, "0", frame.addr));
+				return ret;
+			}
+			case AstSnapshot.NOT:
+				return "";
+			case AstSnapshot.ADDR_OF:
+			case AstSnapshot.DEREF:
+				// not supported yet, as in the classes
+				return "";
+		}
+		return translateBinary(exp, frame.addr1, frame.addr, frame.trueLabel, frame.falseLabel);
+	}
+
+	// The code of a binary operator after its operands, at addr1 and addr2
+	private String translateBinary(int exp, String addr1, String addr2, String trueLabel, String falseLabel) {
+		String ret = "";
+		switch (kind[exp]) {
+			case AstSnapshot.AND:
+			case AstSnapshot.OR:
+				break;
+			case AstSnapshot.PLUS:
+				emit(HIRHelper.add(ret = temporary(), addr1, addr2));
+				break;
+			case AstSnapshot.MINUS:
+				emit(HIRHelper.subtract(ret = temporary(), addr1, addr2));
+				break;
+			case AstSnapshot.TIMES:
+				emit(HIRHelper.multiply(ret = temporary(), addr1, addr2));
+				break;
+			case AstSnapshot.DIVIDE:
+				emit(HIRHelper.divide(ret = temporary(), addr1, addr2));
+				break;
+			case AstSnapshot.MODULO:
+				emit(HIRHelper.modulo(ret = temporary(), addr1, addr2));
+				break;
+			case AstSnapshot.EQUALS:
+				emit(HIRHelper.jumpEqual(addr1, addr2, trueLabel));
+				emit(HIRHelper.jump(falseLabel));
+				break;
+			case AstSnapshot.NOT_EQUALS:
+				emit(HIRHelper.jumpNotEqual(addr1, addr2, trueLabel));
+				emit(HIRHelper.jump(falseLabel));
+				break;
+			case AstSnapshot.LESS:
+				emit(HIRHelper.jumpLess(addr1, addr2, trueLabel));
+				emit(HIRHelper.jump(falseLabel));
+				break;
+			case AstSnapshot.GREATER:
+				emit(HIRHelper.jumpLess(addr2, addr1, trueLabel));
+				emit(HIRHelper.jump(falseLabel));
+				break;
+			case AstSnapshot.LESS_EQ:
+				emit(HIRHelper.jumpLessOrEqual(addr1, addr2, trueLabel));
+				emit(HIRHelper.jump(falseLabel));
+				break;
+			case AstSnapshot.GREATER_EQ:
+				emit(HIRHelper.jumpLessOrEqual(addr2, addr1, trueLabel));
+				emit(HIRHelper.jump(falseLabel));
+				break;
+		}
+		return ret;
+	}
+
+	// A call, after its actuals
+	private String translateCall(ExpFrame frame, SymbolTable symbolTable) {
+		int call = frame.exp;
+		int name = child[call];
+		if (frame.params == null) {
+			// a system call, of the address of its last actual
+			if (payload[name] == SCANF)
+				emit(HIRHelper.readValue(frame.addr));
+			else
+				emit(HIRHelper.writeValue(frame.addr));
+			return "";
+		}
+
+		StringBuilder label = new StringBuilder(NamePool.getName(payload[name])).append('_');
+		for (Type param : frame.params)
+			label.append('_').append(param.getName());
+		FunctionType fnType = symbolTable.lookupFunction(payload[name], frame.params);
+		if (fnType != null && fnType.getType().getName() == Type.voidTypeName) {
+			emit(HIRHelper.callProc(label.toString(), payload[call]));
+		} else if (fnType != null) {
+			String ret = temporary();
+			emit(HIRHelper.callProc(ret, label.toString(), payload[call]));
+			return ret;
+		}
+		return "";
+	}
+
+	private static String temporary() {
+		return HIRHelper.getAddress(HIRHelper.newVariable(Scope.TEMPORARY), Scope.TEMPORARY);
+	}
+
+	private String functionLabel(int fn) {
+		StringBuilder ret = new StringBuilder(NamePool.getName(payload[child[fn]])).append('_');
+		for (int formal = child[next[child[fn]]]; formal != NONE; formal = next[formal])
+			ret.append('_').append(types[payload[formal]].getName());
+		return ret.toString();
+	}
+
+	// ****************************************************************
+	// Nodes
+	// ****************************************************************
+
+	private boolean isSystemCall(int call) {
+		int name = payload[child[call]];
+		return name == SCANF || name == PRINTF;
+	}
+
+	// The node a REF stands for, or node itself
+	private int target(int node) {
+		return kind[node] == AstSnapshot.REF ? payload[node] : node;
+	}
+
+	// PLUS to GREATER_EQ; ARRAY is not a BinaryExp in the classes either
+	private boolean isBinary(int node) {
+		return kind[node] >= AstSnapshot.PLUS && kind[node] <= AstSnapshot.GREATER_EQ;
+	}
+
+	// INT_LIT, STRING_LIT and ID, the exps with no operands
+	private boolean isLeaf(int node) {
+		return kind[node] >= AstSnapshot.INT_LIT && kind[node] <= AstSnapshot.ID;
+	}
+
+	// The first operand of a composite exp: its first kid, but for the
+	// name of a call
+	private int firstOperand(int exp) {
+		return kind[exp] == AstSnapshot.CALL ? next[child[exp]] : child[exp];
+	}
+
+	// The number of blocks (a DECL_LIST and a STMT_LIST) of a stmt
+	private int blockCount(int stmt) {
+		switch (kind[stmt]) {
+			case AstSnapshot.IF:
+			case AstSnapshot.WHILE:
+			case AstSnapshot.FOR:
+				return 1;
+			case AstSnapshot.IF_ELSE:
+				return 2;
+			default:
+				return 0;
+		}
+	}
+
+	// The DECL_LIST of block i of a compound stmt
+	private int blockDecls(int stmt, int i) {
+		int first = child[stmt];
+		switch (kind[stmt]) {
+			case AstSnapshot.IF_ELSE:
+				return i == 0 ? next[first] : next[next[next[first]]];
+			case AstSnapshot.FOR:
+				return next[next[next[first]]];
+			default:
+				return next[first];
+		}
+	}
+
+	// The leaf an Exp takes its position from: itself, its first operand's,
+	// the name of a call
+	private int positionLeaf(int node) {
+		while (true) {
+			switch (kind[node]) {
+				case AstSnapshot.INT_LIT:
+				case AstSnapshot.STRING_LIT:
+				case AstSnapshot.ID:
+					return node;
+				case AstSnapshot.REF:
+					node = payload[node];
+					break;
+				default:
+					node = child[node];
+					break;
+			}
+		}
+	}
+
+	private int line(int node) {
+		return (int) (positions[child[positionLeaf(node)]] >>> 32);
+	}
+
+	private int charNum(int node) {
+		return (int) positions[child[positionLeaf(node)]];
+	}
+
+	// ****************************************************************
+	// Building, from an AstSnapshot
+	// ****************************************************************
+
+	private int newNode(int k) {
+		if (count == kind.length) {
+			int capacity = 2 * kind.length;
+			kind = Arrays.copyOf(kind, capacity);
+			child = Arrays.copyOf(child, capacity);
+			next = Arrays.copyOf(next, capacity);
+			payload = Arrays.copyOf(payload, capacity);
+		}
+		kind[count] = (byte) k;
+		child[count] = NONE;
+		next[count] = NONE;
+		return count++;
+	}
+
+	private void trim() {
+		kind = Arrays.copyOf(kind, count);
+		child = Arrays.copyOf(child, count);
+		next = Arrays.copyOf(next, count);
+		payload = Arrays.copyOf(payload, count);
+		positions = Arrays.copyOf(positions, positionCount);
+		types = Arrays.copyOf(types, typeCount);
+	}
+
+	// Links node after last, as the first child of parent if last is NONE
+	private int append(int parent, int last, int node) {
+		if (last == NONE)
+			child[parent] = node;
+		else
+			next[last] = node;
+		return node;
+	}
+
+	// The snapshot is read with a stack of Frames, one for each node whose
+	// kids are being read, as AstSnapshot.read reads it into the classes.
+	// Each node is numbered when it is begun, so in pre-order, and each
+	// Exp is given its snapshot index when its kids are done.
+	private int readTree() throws IOException {
+		ArrayList<ReadFrame> stack = new ArrayList<ReadFrame>();
+		int ret = begin(AstSnapshot.READ_DECLS, stack);
+		while (!stack.isEmpty()) {
+			ReadFrame top = stack.get(stack.size() - 1);
+			int what = kidToRead(top.node, top.read);
+			if (what < 0) {
+				stack.remove(stack.size() - 1);
+				int node = top.node;
+				if (top.what == AstSnapshot.READ_EXP && kind[node] != AstSnapshot.NULL
+						&& kind[node] != AstSnapshot.REF) {
+					if (expCount == expNodes.length)
+						expNodes = Arrays.copyOf(expNodes, 2 * expNodes.length);
+					expNodes[expCount++] = node;
+				}
+				continue;
+			}
+			top.read++;
+			top.last = append(top.node, top.last, begin(what, stack));
+		}
+		return ret;
+	}
+
+	// Reads the tag and the fields of a node, and the kids that cannot
+	// nest (a name, the formals), then pushes its Frame
+	private int begin(int what, ArrayList<ReadFrame> stack) throws IOException {
+		int ret;
+		int last = NONE;
+		if (what == AstSnapshot.READ_DECLS || what == AstSnapshot.READ_STMTS) {
+			ret = newNode(what == AstSnapshot.READ_DECLS ? DECL_LIST : STMT_LIST);
+			payload[ret] = in.readCount();
+		} else {
+			int tag = in.readByte();
+			ret = newNode(tag);
+			if (what == AstSnapshot.READ_DECL) {
+				if (tag != AstSnapshot.VAR_DECL && tag != AstSnapshot.FN_DECL && tag != AstSnapshot.FN_PRE_DECL)
+					throw AstSnapshot.corrupt(tag);
+				payload[ret] = readType();
+				last = append(ret, NONE, readId());
+				if (tag != AstSnapshot.VAR_DECL)
+					last = append(ret, last, readFormals());
+			} else if (what == AstSnapshot.READ_STMT) {
+				if (tag != AstSnapshot.NULL && (tag < AstSnapshot.ASSIGN || tag > AstSnapshot.RETURN))
+					throw AstSnapshot.corrupt(tag);
+			} else
+				last = beginExp(ret);
+		}
+		stack.add(new ReadFrame(ret, what, last));
+		return ret;
+	}
+
+	// The fields of an Exp node; returns its last kid so far
+	private int beginExp(int exp) throws IOException {
+		int tag = kind[exp];
+		switch (tag) {
+			case AstSnapshot.NULL:
+			case AstSnapshot.UNARY_MINUS:
+			case AstSnapshot.NOT:
+			case AstSnapshot.ADDR_OF:
+			case AstSnapshot.DEREF:
+				break;
+			case AstSnapshot.REF: {
+				int index = in.readCount();
+				if (index >= expCount)
+					throw new IOException("bad reference in AST snapshot");
+				payload[exp] = expNodes[index];
+				break;
+			}
+			case AstSnapshot.INT_LIT:
+				readPosition(exp);
+				payload[exp] = in.readInteger();
+				break;
+			case AstSnapshot.STRING_LIT:
+				readPosition(exp);
+				payload[exp] = literals.size();
+				literals.add(in.readString());
+				break;
+			case AstSnapshot.ID:
+				readPosition(exp);
+				payload[exp] = in.readName();
+				break;
+			case AstSnapshot.CALL: {
+				int last = append(exp, NONE, readId());
+				payload[exp] = in.readCount();
+				return last;
+			}
+			default:
+				if (tag < AstSnapshot.ARRAY || tag > AstSnapshot.GREATER_EQ)
+					throw AstSnapshot.corrupt(tag);
+				break;
+		}
+		return NONE;
+	}
+
+	// The READ_ kind of kid i of node, or -1 when its kids are all read
+	private int kidToRead(int node, int i) {
+		int[] kids;
+		switch (kind[node]) {
+			case DECL_LIST:
+				return i < payload[node] ? AstSnapshot.READ_DECL : -1;
+			case STMT_LIST:
+				return i < payload[node] ? AstSnapshot.READ_STMT : -1;
+			case AstSnapshot.CALL:
+				return i < payload[node] ? AstSnapshot.READ_EXP : -1;
+			case AstSnapshot.FN_DECL:
+				kids = AstSnapshot.FN_BODY_KIDS;
+				break;
+			case AstSnapshot.IF:
+			case AstSnapshot.WHILE:
+				kids = AstSnapshot.IF_KIDS;
+				break;
+			case AstSnapshot.IF_ELSE:
+				kids = AstSnapshot.IF_ELSE_KIDS;
+				break;
+			case AstSnapshot.FOR:
+				kids = AstSnapshot.FOR_KIDS;
+				break;
+			case AstSnapshot.CALL_STMT:
+			case AstSnapshot.RETURN:
+			case AstSnapshot.UNARY_MINUS:
+			case AstSnapshot.NOT:
+			case AstSnapshot.ADDR_OF:
+			case AstSnapshot.DEREF:
+				return i < 1 ? AstSnapshot.READ_EXP : -1;
+			case AstSnapshot.ASSIGN:
+			case AstSnapshot.ARRAY:
+				return i < 2 ? AstSnapshot.READ_EXP : -1;
+			default:
+				return isBinary(node) && i < 2 ? AstSnapshot.READ_EXP : -1;
+		}
+		return i < kids.length ? kids[i] : -1;
+	}
+
+	private int readFormals() throws IOException {
+		int ret = newNode(FORMALS);
+		int n = in.readCount();
+		payload[ret] = n;
+		int last = NONE;
+		for (int i = 0; i < n; ++i) {
+			int formal = newNode(FORMAL);
+			payload[formal] = readType();
+			append(formal, NONE, readId());
+			last = append(ret, last, formal);
+		}
+		return ret;
+	}
+
+	private int readId() throws IOException {
+		int ret = newNode(AstSnapshot.ID);
+		readPosition(ret);
+		payload[ret] = in.readName();
+		return ret;
+	}
+
+	private void readPosition(int leaf) throws IOException {
+		int line = in.readLine();
+		if (positionCount == positions.length)
+			positions = Arrays.copyOf(positions, 2 * positions.length);
+		positions[positionCount] = (long) line << 32 | (in.readCount() & 0xFFFFFFFFL);
+		child[leaf] = positionCount++;
+	}
+
+	// Index of the type in types; equal types share an entry
+	private int readType() throws IOException {
+		Type type = in.readType();
+		String key = type.getName() + "/" + type.getSize() + "/" + type.getNumPointers();
+		Integer index = typeIndexes.get(key);
+		if (index == null) {
+			index = typeCount;
+			typeIndexes.put(key, index);
+			if (typeCount == types.length)
+				types = Arrays.copyOf(types, 2 * types.length);
+			types[typeCount++] = type;
+		}
+		return index;
+	}
+
+	// ****************************************************************
+	// Kinds and fields
+	// ****************************************************************
+
+	// list kinds, after the AstSnapshot tags
+	static final int DECL_LIST = 40;
+	static final int STMT_LIST = 41;
+	static final int FORMALS = 42;
+	static final int FORMAL = 43;
+
+	static final int NONE = -1;
+
+	private static final Type INT = Type.CreateSimpleType(Type.intTypeName);
+	private static final Type BOOL = Type.CreateSimpleType(Type.boolTypeName);
+	private static final Type STRING = Type.CreateSimpleType(Type.stringTypeName);
+	private static final Type VOID = Type.CreateSimpleType(Type.voidTypeName);
+	private static final Type ERROR = Type.CreateSimpleType(Type.errorTypeName);
+	private static final int SCANF = NamePool.intern("scanf");
+	private static final int PRINTF = NamePool.intern("printf");
+
+	private AstArena() {
+		int capacity = 1024;
+		kind = new byte[capacity];
+		child = new int[capacity];
+		next = new int[capacity];
+		payload = new int[capacity];
+		positions = new long[capacity];
+		types = new Type[16];
+		literals = new ArrayList<String>();
+		results = new BitSet();
+		expNodes = new int[capacity];
+		typeIndexes = new HashMap<String, Integer>();
+	}
+
+	// nodes
+	private byte[] kind;
+	private int[] child;
+	private int[] next;
+	private int[] payload;
+	private int count;
+	private long[] positions; // of the leaves
+	private int positionCount;
+	private int root; // the DECL_LIST of the Program
+
+	private Type[] types;
+	private int typeCount;
+	private List<String> literals;
+	private BitSet results; // ARRAY nodes that are assigned to
+
+	// building
+	private AstSnapshot in;
+	private int[] expNodes; // node of each Exp, in snapshot order
+	private int expCount;
+	private HashMap<String, Integer> typeIndexes;
+
+	// translating
+	private int function; // the FN_DECL being checked or translated
+	private StringBuilder out;
+	private List<String> literalsUsed;
+	private HashMap<Integer, String> indexAddresses; // last index address of each ARRAY node
+
+	// ****************************************************************
+	// Frames, for the walks that would otherwise recurse as deep as the
+	// program nests
+	// ****************************************************************
+
+	// A STMT_LIST being checked or translated: the stmt it is at, and the
+	// block of that stmt walked last (-1 before the first)
+	private static final class Frame {
+
+		Frame(int stmt, boolean scoped) {
+			this.stmt = stmt;
+			this.scoped = scoped;
+		}
+
+		int stmt;
+		final boolean scoped; // a block, whose scope ends with the list
+		int block = -1;
+		String nextLabel;     // translating: the labels of the stmt,
+		int start;            // where its code starts in out,
+		String loopLabel;
+		String falseLabel;
+		StringBuilder incrCode; // and the code of a for stmt's incr
+	}
+
+	// A composite exp being translated
+	private static final class ExpFrame {
+
+		ExpFrame(int exp, String trueLabel, String falseLabel) {
+			this.exp = exp;
+			this.trueLabel = trueLabel;
+			this.falseLabel = falseLabel;
+		}
+
+		final int exp;
+		final String trueLabel;
+		final String falseLabel;
+		int kid;            // the operand to walk next, or NONE
+		int walked;         // operands walked so far
+		String rightLabel;  // of an AND or OR, before its second operand
+		String addr1;       // of the first operand
+		String addr = "";   // of the operand walked last
+		LinkedList<Type> params; // of a call but a system call: the types of its actuals
+	}
+
+	// A node whose kids are being read
+	private static final class ReadFrame {
+
+		ReadFrame(int node, int what, int last) {
+			this.node = node;
+			this.what = what;
+			this.last = last;
+		}
+
+		final int node;
+		final int what; // its AstSnapshot.READ_ kind
+		int read;       // kids read so far
+		int last;       // the kid appended last, or NONE
+	}
+}
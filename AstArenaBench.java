@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+// **********************************************************************
+// AstArenaBench
+//
+// Compares the two backends. Parses the input file, then checks and
+// translates it with the classes and with an AstArena, compares the
+// diagnostics and the HIR, and reports the time of each pass and the
+// memory of each form.
+//
+// usage: AstArenaBench [-runs n] <input file>
+// **********************************************************************
+public class AstArenaBench {
+
+	public static void main(String[] args) throws Exception {
+		int runs = 5;
+		int argIdx = 0;
+		if (args.length == 3 && args[0].equals("-runs")) {
+			runs = Integer.parseInt(args[1]);
+			argIdx = 2;
+		}
+		if (args.length - argIdx != 1) {
+			System.err.println("usage: AstArenaBench [-runs n] <input file>");
+			System.exit(-1);
+		}
+		java.nio.CharBuffer input = Yylex.readFile(args[argIdx]);
+		char[] chars = Arrays.copyOf(input.array(), input.limit());
+
+		long treeHeap = usedHeap();
+		Program program = new FastParser(TokenBuffer.scan(new Yylex(chars, chars.length))).parse();
+		treeHeap = usedHeap() - treeHeap;
+		long arenaHeap = usedHeap();
+		AstArena arena = AstArena.build(program);
+		arenaHeap = usedHeap() - arenaHeap;
+		long buildTime = Long.MAX_VALUE;
+		for (int i = 0; i < runs; ++i) {
+			long start = System.nanoTime();
+			AstArena.build(program);
+			buildTime = Math.min(buildTime, System.nanoTime() - start);
+		}
+
+		long[] treeTimes = { Long.MAX_VALUE, Long.MAX_VALUE };
+		long[] arenaTimes = { Long.MAX_VALUE, Long.MAX_VALUE };
+		String expected = null;
+		String actual = null;
+		for (int i = 0; i <= runs; ++i) {
+			String e = compile(program, null, treeTimes);
+			String a = compile(null, arena, arenaTimes);
+			if (i == 0) { // warmup
+				expected = e;
+				actual = a;
+			}
+		}
+
+		System.out.printf("%d nodes; classes %.1f MB, arena %.1f MB (%.1f MB in its arrays), "
+				+ "built from the tree in %.1f ms%n", arena.size(), treeHeap / 1048576.0,
+				arenaHeap / 1048576.0, arena.arrayBytes() / 1048576.0, buildTime / 1e6);
+		System.out.printf("check:     classes %.1f ms, arena %.1f ms (%.1f vs %.1f ns/node)%n",
+				treeTimes[0] / 1e6, arenaTimes[0] / 1e6,
+				(double) treeTimes[0] / arena.size(), (double) arenaTimes[0] / arena.size());
+		System.out.printf("translate: classes %.1f ms, arena %.1f ms (%.1f vs %.1f ns/node)%n",
+				treeTimes[1] / 1e6, arenaTimes[1] / 1e6,
+				(double) treeTimes[1] / arena.size(), (double) arenaTimes[1] / arena.size());
+		if (!expected.equals(actual)) {
+			System.out.println("FAIL: the arena reports or translates differently");
+			System.exit(1);
+		}
+		System.out.println("diagnostics and HIR match (" + expected.length() + " chars)");
+	}
+
+	// The diagnostics and HIR of one backend, with the best times of its
+	// passes in times
+	private static String compile(Program program, AstArena arena, long[] times) {
+		Errors.begin();
+		HIRHelper.resetAll();
+		long start = System.nanoTime();
+		if (program != null)
+			program.check();
+		else
+			arena.check();
+		long checked = System.nanoTime();
+		boolean ok = Errors.semanticErrors == 0;
+		String code = "";
+		if (ok)
+			code = (program != null ? program.translate() : arena.translate()).getCode().toString();
+		long translated = System.nanoTime();
+		times[0] = Math.min(times[0], checked - start);
+		times[1] = Math.min(times[1], translated - checked);
+		return String.join("\n", Errors.end()) + "\n" + code;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
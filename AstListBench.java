@@ -0,0 +1,105 @@
+import java.io.*;
+import java_cup.runtime.*;
+
+// **********************************************************************
+// AstListBench
+//
+// Front-end benchmark for long AST child lists. Builds a program with a
+// function of many parameters, called many times with as many arguments,
+// and a function whose body is one block of many statements, then times
+// parsing, checking and translating it separately.
+//
+// usage: AstListBench [-fast-parse] [-args n] [-calls n] [-stmts n]
+//                     [-runs n]
+// **********************************************************************
+public class AstListBench {
+
+	public static void main(String[] args) throws Exception {
+		boolean fastParse = false;
+		int arguments = 500;
+		int calls = 1000;
+		int stmts = 100000;
+		int runs = 5;
+
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-fast-parse"))
+				fastParse = true;
+			else if (args[i].equals("-args") && i + 1 < args.length)
+				arguments = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-calls") && i + 1 < args.length)
+				calls = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-stmts") && i + 1 < args.length)
+				stmts = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-runs") && i + 1 < args.length)
+				runs = Integer.parseInt(args[++i]);
+			else
+				usage();
+		}
+
+		char[] input = generate(arguments, calls, stmts);
+		System.out.println((fastParse ? "FastParser" : "CUP parser") + ", " + calls + " calls of "
+				+ arguments + " arguments, a block of " + stmts + " statements, "
+				+ input.length + " chars");
+
+		long parse = Long.MAX_VALUE;
+		long check = Long.MAX_VALUE;
+		long translate = Long.MAX_VALUE;
+		for (int i = 0; i <= runs; ++i) {
+			Errors.begin();
+			HIRHelper.resetAll();
+			long start = System.nanoTime();
+			Program program = parse(input.clone(), fastParse);
+			long parsed = System.nanoTime();
+			program.check();
+			long checked = System.nanoTime();
+			program.translate();
+			long translated = System.nanoTime();
+			if (Errors.end().size() > 0)
+				throw new IllegalStateException("the generated program does not compile");
+			if (i == 0)
+				continue; // warmup
+			parse = Math.min(parse, parsed - start);
+			check = Math.min(check, checked - parsed);
+			translate = Math.min(translate, translated - checked);
+		}
+		System.out.printf("parse %.1f ms, check %.1f ms, translate %.1f ms (best of %d)%n",
+				parse / 1e6, check / 1e6, translate / 1e6, runs);
+	}
+
+	private static void usage() {
+		System.err.println("usage: AstListBench [-fast-parse] [-args n] [-calls n] [-stmts n] [-runs n]");
+		System.exit(-1);
+	}
+
+	private static Program parse(char[] input, boolean fastParse) throws Exception {
+		if (fastParse)
+			return new FastParser(TokenBuffer.scan(new Yylex(input, input.length))).parse();
+		return (Program) new parser(new Yylex(input, input.length)).parse().value;
+	}
+
+	private static char[] generate(int arguments, int calls, int stmts) {
+		StringBuilder out = new StringBuilder();
+		out.append("int wide(");
+		for (int i = 0; i < arguments; ++i)
+			out.append(i == 0 ? "" : ", ").append("int a").append(i);
+		out.append(") {\n\treturn a0;\n}\n\n");
+
+		out.append("void callWide() {\n\tint x;\n\tx = 0;\n");
+		for (int i = 0; i < calls; ++i) {
+			out.append("\tx = wide(");
+			for (int j = 0; j < arguments; ++j)
+				out.append(j == 0 ? "" : ", ").append(j % 2 == 0 ? "x" : Integer.toString(j));
+			out.append(");\n");
+		}
+		out.append("}\n\n");
+
+		out.append("void longBlock() {\n\tint x;\n\tx = 0;\n");
+		for (int i = 0; i < stmts; ++i)
+			out.append("\tx = x + ").append(i % 100).append(";\n");
+		out.append("}\n\nvoid main() {\n\tcallWide();\n\tlongBlock();\n}\n");
+
+		char[] ret = new char[out.length()];
+		out.getChars(0, out.length(), ret, 0);
+		return ret;
+	}
+}
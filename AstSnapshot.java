@@ -0,0 +1,626 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+// **********************************************************************
+// AstSnapshot
+//
+// Compact binary form of a parsed Program, to reload an unchanged file
+// without scanning and parsing it again. Layout:
+//
+//     "CAST" version
+//     string table: count, then per string its length and chars
+//     the DeclList of the Program
+//
+// All numbers are unsigned LEB128 varints (zigzag for signed ones) and
+// chars are varints too, so ASCII text takes a byte per char. A node is a
+// tag byte followed by its fields in constructor order; lists are a count
+// followed by their elements. Names, string literals and type names are
+// indexes into the string table. A line is stored as the difference to
+// the line of the previous position, which is mostly 0 or 1.
+//
+// The parser shares a loc between both sides of a compound assignment
+// (a += b builds AssignStmt(a, PlusExp(a, b))). An Exp written a second
+// time is stored as a REF to its index in write order, so the reloaded
+// tree has the same sharing as the parsed one.
+//
+// Each node writes itself through write(AstSnapshot), and read() rebuilds
+// the nodes through their constructors. Neither recurses per level of the
+// tree: a node's write() puts out its own fields and only lists its kids,
+// which are written afterwards from an explicit stack, and read() keeps
+// the nodes begun but not yet built on a stack of Frames.
+//
+// See AstSnapshotBench for a round trip check.
+// **********************************************************************
+class AstSnapshot {
+
+	public static final int VERSION = 1;
+
+	public static byte[] write(Program program) {
+		AstSnapshot body = new AstSnapshot();
+		body.walk(program);
+
+		AstSnapshot out = new AstSnapshot();
+		for (int i = 0; i < MAGIC.length(); ++i)
+			out.writeByte(MAGIC.charAt(i));
+		out.count(VERSION);
+		out.count(body.strings.size());
+		for (String s : body.strings) {
+			out.count(s.length());
+			for (int i = 0; i < s.length(); ++i)
+				out.count(s.charAt(i));
+		}
+		out.writeBytes(body.data, body.size);
+		return Arrays.copyOf(out.data, out.size);
+	}
+
+	public static Program read(byte[] data) throws IOException {
+		AstSnapshot in = open(data);
+		Program ret = new Program(in.readDeclList());
+		in.close();
+		return ret;
+	}
+
+	// A reader at the DeclList of the Program in data, for read() and
+	// AstArena
+	static AstSnapshot open(byte[] data) throws IOException {
+		AstSnapshot in = new AstSnapshot(data);
+		for (int i = 0; i < MAGIC.length(); ++i)
+			if (in.readByte() != MAGIC.charAt(i))
+				throw new IOException("not an AST snapshot");
+		int version = in.readCount();
+		if (version != VERSION)
+			throw new IOException("AST snapshot version " + version + ", expected " + VERSION);
+		int count = in.readCount();
+		in.table = new String[count];
+		in.nameIds = new int[count];
+		char[] buf = new char[64];
+		for (int i = 0; i < count; ++i) {
+			int length = in.readCount();
+			if (length > buf.length)
+				buf = new char[Math.max(2 * buf.length, length)];
+			for (int j = 0; j < length; ++j)
+				buf[j] = (char) in.readCount();
+			in.table[i] = new String(buf, 0, length);
+			in.nameIds[i] = -1;
+		}
+		in.exps = new ArrayList<Exp>();
+		in.frames = new ArrayList<Frame>();
+		return in;
+	}
+
+	void close() throws IOException {
+		if (pos != size)
+			throw new IOException("trailing bytes in AST snapshot");
+	}
+
+	public static void write(Program program, OutputStream out) throws IOException {
+		out.write(write(program));
+	}
+
+	public static Program read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[64 * 1024];
+		int n;
+		while ((n = in.read(buf)) > 0)
+			bytes.write(buf, 0, n);
+		return read(bytes.toByteArray());
+	}
+
+	// ****************************************************************
+	// Writing, called by the nodes
+	// ****************************************************************
+
+	// Writes root and everything under it. The kids a node lists are pushed
+	// in reverse, so they come off the stack in order, each after all of
+	// the kids before it; an Exp gets its index once its own kids are
+	// written, as the reader numbers them.
+	private void walk(Ast root) {
+		ArrayList<Object> stack = new ArrayList<Object>();
+		stack.add(root);
+		while (!stack.isEmpty()) {
+			Object top = stack.remove(stack.size() - 1);
+			if (top == NULL_KID) {
+				tag(NULL);
+				continue;
+			}
+			if (top == EXP_DONE) {
+				written.put((Exp) stack.remove(stack.size() - 1), written.size());
+				continue;
+			}
+			if (top instanceof Exp) {
+				Integer index = written.get(top);
+				if (index != null) {
+					tag(REF);
+					count(index);
+					continue;
+				}
+				stack.add(top);
+				stack.add(EXP_DONE);
+			}
+			((Ast) top).write(this);
+			for (int i = kids.size() - 1; i >= 0; --i)
+				stack.add(kids.get(i));
+			kids.clear();
+		}
+	}
+
+	// A kid of the node being written, written after it
+	void node(Ast node) {
+		kids.add(node);
+	}
+
+	void exp(Exp exp) {
+		kids.add(exp == null ? NULL_KID : exp);
+	}
+
+	void stmt(Stmt stmt) {
+		kids.add(stmt == null ? NULL_KID : stmt);
+	}
+
+	void tag(int tag) {
+		writeByte(tag);
+	}
+
+	void count(int n) {
+		while ((n & ~0x7F) != 0) {
+			writeByte((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		writeByte(n);
+	}
+
+	void integer(int n) {
+		count((n << 1) ^ (n >> 31));
+	}
+
+	void string(String s) {
+		Integer index = stringIndexes.get(s);
+		if (index == null) {
+			index = strings.size();
+			stringIndexes.put(s, index);
+			strings.add(s);
+		}
+		count(index);
+	}
+
+	void position(int line, int charNum) {
+		integer(line - lastLine);
+		lastLine = line;
+		count(charNum);
+	}
+
+	void type(Type type) {
+		string(type.getName());
+		integer(type.getSize());
+		count(type.getNumPointers());
+	}
+
+	// An Id outside an Exp (the name of a decl or of a called function)
+	void id(Id id) {
+		position(id.getLine(), id.getChar());
+		string(id.getName());
+	}
+
+	private void writeByte(int b) {
+		if (size == data.length)
+			data = Arrays.copyOf(data, 2 * data.length);
+		data[size++] = (byte) b;
+	}
+
+	private void writeBytes(byte[] bytes, int length) {
+		if (size + length > data.length)
+			data = Arrays.copyOf(data, Math.max(2 * data.length, size + length));
+		System.arraycopy(bytes, 0, data, size, length);
+		size += length;
+	}
+
+	// ****************************************************************
+	// Reading, also used by AstArena
+	// ****************************************************************
+
+	private DeclList readDeclList() throws IOException {
+		return (DeclList) readTree(READ_DECLS);
+	}
+
+	// Reads a node of the given READ_ kind and everything under it
+	private Object readTree(int what) throws IOException {
+		Object value = begin(what);
+		while (!frames.isEmpty()) {
+			Frame top = frames.get(frames.size() - 1);
+			if (top.read < top.kids.length) {
+				value = begin(top.kidKinds != null ? top.kidKinds[top.read] : top.kidKind);
+				if (value != PUSHED)
+					top.kids[top.read++] = value;
+				continue;
+			}
+			frames.remove(frames.size() - 1);
+			value = build(top);
+			if (!frames.isEmpty()) {
+				Frame parent = frames.get(frames.size() - 1);
+				parent.kids[parent.read++] = value;
+			}
+		}
+		return value;
+	}
+
+	// Reads the fields of a node of the given READ_ kind. Returns the node
+	// if it has no kids, or PUSHED after pushing a Frame for it
+	private Object begin(int what) throws IOException {
+		switch (what) {
+			case READ_DECLS:
+				push(what, 0, new Decl[readCount()], READ_DECL, null);
+				return PUSHED;
+			case READ_STMTS:
+				push(what, 0, new Stmt[readCount()], READ_STMT, null);
+				return PUSHED;
+			case READ_DECL: {
+				int tag = readByte();
+				switch (tag) {
+					case VAR_DECL:
+						return new VarDecl(readType(), readId());
+					case FN_DECL: {
+						Frame f = push(what, tag, new Object[2], 0, FN_BODY_KIDS);
+						f.type = readType();
+						f.id = readId();
+						f.formals = readFormals();
+						return PUSHED;
+					}
+					case FN_PRE_DECL:
+						return new FnPreDecl(readType(), readId(), readFormals());
+				}
+				throw corrupt(tag);
+			}
+			case READ_STMT: {
+				int tag = readByte();
+				switch (tag) {
+					case NULL:
+						return null;
+					case ASSIGN:
+						push(what, tag, new Object[2], READ_EXP, null);
+						return PUSHED;
+					case IF:
+					case WHILE:
+						push(what, tag, new Object[3], 0, IF_KIDS);
+						return PUSHED;
+					case IF_ELSE:
+						push(what, tag, new Object[5], 0, IF_ELSE_KIDS);
+						return PUSHED;
+					case FOR:
+						push(what, tag, new Object[5], 0, FOR_KIDS);
+						return PUSHED;
+					case CALL_STMT:
+					case RETURN:
+						push(what, tag, new Object[1], READ_EXP, null);
+						return PUSHED;
+				}
+				throw corrupt(tag);
+			}
+		}
+
+		int tag = readByte();
+		Exp ret;
+		switch (tag) {
+			case NULL:
+				return null;
+			case REF:
+				int index = readCount();
+				if (index >= exps.size())
+					throw new IOException("bad reference in AST snapshot");
+				return exps.get(index);
+			case INT_LIT:
+				ret = new IntLit(readLine(), readCount(), readInteger());
+				break;
+			case STRING_LIT:
+				ret = new StringLit(readLine(), readCount(), readString());
+				break;
+			case ID:
+				ret = readId();
+				break;
+			case CALL: {
+				Id name = readId();
+				push(what, tag, new Exp[readCount()], READ_EXP, null).id = name;
+				return PUSHED;
+			}
+			case UNARY_MINUS:
+			case NOT:
+			case ADDR_OF:
+			case DEREF:
+				push(what, tag, new Object[1], READ_EXP, null);
+				return PUSHED;
+			default:
+				if (tag < ARRAY || tag > GREATER_EQ)
+					throw corrupt(tag);
+				push(what, tag, new Object[2], READ_EXP, null);
+				return PUSHED;
+		}
+		exps.add(ret);
+		return ret;
+	}
+
+	private Frame push(int what, int tag, Object[] kids, int kidKind, int[] kidKinds) {
+		Frame ret = new Frame(what, tag, kids, kidKind, kidKinds);
+		frames.add(ret);
+		return ret;
+	}
+
+	// The node of f, whose kids have all been read
+	private Object build(Frame f) throws IOException {
+		Object[] k = f.kids;
+		switch (f.what) {
+			case READ_DECLS:
+				return new DeclList((Decl[]) k);
+			case READ_STMTS:
+				return new StmtList((Stmt[]) k);
+			case READ_DECL:
+				return new FnDecl(f.type, f.id, f.formals, new FnBody((DeclList) k[0], (StmtList) k[1]));
+			case READ_STMT:
+				switch (f.tag) {
+					case ASSIGN:
+						return new AssignStmt((Exp) k[0], (Exp) k[1]);
+					case IF:
+						return new IfStmt((Exp) k[0], (DeclList) k[1], (StmtList) k[2]);
+					case IF_ELSE:
+						return new IfElseStmt((Exp) k[0], (DeclList) k[1], (StmtList) k[2],
+								(DeclList) k[3], (StmtList) k[4]);
+					case WHILE:
+						return new WhileStmt((Exp) k[0], (DeclList) k[1], (StmtList) k[2]);
+					case FOR:
+						return new ForStmt((Stmt) k[0], (Exp) k[1], (Stmt) k[2],
+								(DeclList) k[3], (StmtList) k[4]);
+					case CALL_STMT:
+						return new CallStmt((CallExp) k[0]);
+					default:
+						return new ReturnStmt((Exp) k[0]);
+				}
+		}
+
+		Exp ret;
+		switch (f.tag) {
+			case ARRAY:
+				ret = new ArrayExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case CALL:
+				ret = new CallExp(f.id, new ActualList((Exp[]) k));
+				break;
+			case UNARY_MINUS:
+				ret = new UnaryMinusExp((Exp) k[0]);
+				break;
+			case NOT:
+				ret = new NotExp((Exp) k[0]);
+				break;
+			case ADDR_OF:
+				ret = new AddrOfExp((Exp) k[0]);
+				break;
+			case DEREF:
+				ret = new DeRefExp((Exp) k[0]);
+				break;
+			case PLUS:
+				ret = new PlusExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case MINUS:
+				ret = new MinusExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case TIMES:
+				ret = new TimesExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case DIVIDE:
+				ret = new DivideExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case MODULO:
+				ret = new ModuloExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case AND:
+				ret = new AndExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case OR:
+				ret = new OrExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case EQUALS:
+				ret = new EqualsExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case NOT_EQUALS:
+				ret = new NotEqualsExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case LESS:
+				ret = new LessExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case GREATER:
+				ret = new GreaterExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case LESS_EQ:
+				ret = new LessEqExp((Exp) k[0], (Exp) k[1]);
+				break;
+			case GREATER_EQ:
+				ret = new GreaterEqExp((Exp) k[0], (Exp) k[1]);
+				break;
+			default:
+				throw corrupt(f.tag);
+		}
+		exps.add(ret);
+		return ret;
+	}
+
+	private FormalsList readFormals() throws IOException {
+		int n = readCount();
+		FormalDecl[] formals = new FormalDecl[n];
+		for (int i = 0; i < n; ++i)
+			formals[i] = new FormalDecl(readType(), readId());
+		return new FormalsList(formals);
+	}
+
+	// A node whose kids are being read
+	private static final class Frame {
+
+		Frame(int what, int tag, Object[] kids, int kidKind, int[] kidKinds) {
+			this.what = what;
+			this.tag = tag;
+			this.kids = kids;
+			this.kidKind = kidKind;
+			this.kidKinds = kidKinds;
+		}
+
+		final int what;       // its READ_ kind
+		final int tag;        // of a decl, stmt or exp
+		final Object[] kids;
+		final int kidKind;    // the READ_ kind of every kid, unless
+		final int[] kidKinds; // the kinds of the kids differ
+		int read;             // kids read so far
+		Type type;            // a FnDecl's fields, or a call's name
+		Id id;
+		FormalsList formals;
+	}
+
+	// what to read, for the Frames here and in AstArena
+	static final int READ_DECLS = 0;
+	static final int READ_STMTS = 1;
+	static final int READ_DECL = 2;
+	static final int READ_STMT = 3;
+	static final int READ_EXP = 4;
+
+	static final int[] FN_BODY_KIDS = { READ_DECLS, READ_STMTS };
+	static final int[] IF_KIDS = { READ_EXP, READ_DECLS, READ_STMTS };
+	static final int[] IF_ELSE_KIDS = { READ_EXP, READ_DECLS, READ_STMTS, READ_DECLS, READ_STMTS };
+	static final int[] FOR_KIDS = { READ_STMT, READ_EXP, READ_STMT, READ_DECLS, READ_STMTS };
+
+	private static final Object PUSHED = new Object();
+
+	private Id readId() throws IOException {
+		int line = readLine();
+		int charNum = readCount();
+		return new Id(line, charNum, readName());
+	}
+
+	// The NamePool id of a string table entry
+	int readName() throws IOException {
+		int index = readCount();
+		if (index >= table.length)
+			throw new IOException("bad string index in AST snapshot");
+		if (nameIds[index] < 0)
+			nameIds[index] = NamePool.intern(table[index]);
+		return nameIds[index];
+	}
+
+	Type readType() throws IOException {
+		// the type names are compared by reference
+		String name = readString().intern();
+		int size = readInteger();
+		return Type.CreateArrayPointerType(name, size, readCount());
+	}
+
+	int readLine() throws IOException {
+		lastLine += readInteger();
+		return lastLine;
+	}
+
+	String readString() throws IOException {
+		int index = readCount();
+		if (index >= table.length)
+			throw new IOException("bad string index in AST snapshot");
+		return table[index];
+	}
+
+	int readInteger() throws IOException {
+		int n = readCount();
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	int readCount() throws IOException {
+		int ret = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			ret |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return ret;
+		}
+		throw new IOException("bad varint in AST snapshot");
+	}
+
+	int readByte() throws IOException {
+		if (pos == size)
+			throw new EOFException("truncated AST snapshot");
+		return data[pos++] & 0xFF;
+	}
+
+	static IOException corrupt(int tag) {
+		return new IOException("bad node tag " + tag + " in AST snapshot");
+	}
+
+	// ****************************************************************
+	// Tags
+	// ****************************************************************
+
+	static final int NULL = 0;
+	static final int REF = 1;
+	static final int VAR_DECL = 2;
+	static final int FN_DECL = 3;
+	static final int FN_PRE_DECL = 4;
+	static final int ASSIGN = 5;
+	static final int IF = 6;
+	static final int IF_ELSE = 7;
+	static final int WHILE = 8;
+	static final int FOR = 9;
+	static final int CALL_STMT = 10;
+	static final int RETURN = 11;
+	static final int INT_LIT = 12;
+	static final int STRING_LIT = 13;
+	static final int ID = 14;
+	static final int ARRAY = 15;
+	static final int CALL = 16;
+	static final int UNARY_MINUS = 17;
+	static final int NOT = 18;
+	static final int ADDR_OF = 19;
+	static final int DEREF = 20;
+	static final int PLUS = 21;
+	static final int MINUS = 22;
+	static final int TIMES = 23;
+	static final int DIVIDE = 24;
+	static final int MODULO = 25;
+	static final int AND = 26;
+	static final int OR = 27;
+	static final int EQUALS = 28;
+	static final int NOT_EQUALS = 29;
+	static final int LESS = 30;
+	static final int GREATER = 31;
+	static final int LESS_EQ = 32;
+	static final int GREATER_EQ = 33;
+
+	private static final String MAGIC = "CAST";
+
+	// stack entries of walk() besides the nodes
+	private static final Object NULL_KID = new Object();  // a null Exp or Stmt
+	private static final Object EXP_DONE = new Object();  // above an Exp being written
+
+	private AstSnapshot() {
+		data = new byte[4096];
+		strings = new ArrayList<String>();
+		stringIndexes = new HashMap<String, Integer>();
+		written = new IdentityHashMap<Exp, Integer>();
+		kids = new ArrayList<Object>();
+	}
+
+	private AstSnapshot(byte[] data) {
+		this.data = data;
+		size = data.length;
+	}
+
+	private byte[] data;
+	private int size;
+	private int pos;
+	private int lastLine;
+
+	// writing
+	private List<String> strings;
+	private HashMap<String, Integer> stringIndexes;
+	private IdentityHashMap<Exp, Integer> written; // index of each Exp written
+	private ArrayList<Object> kids; // listed by the node being written
+
+	// reading
+	private String[] table;
+	private int[] nameIds; // NamePool id of table entries used as names, or -1
+	private List<Exp> exps;
+	private ArrayList<Frame> frames;
+}
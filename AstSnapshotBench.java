@@ -0,0 +1,72 @@
+import java.util.Arrays;
+
+// **********************************************************************
+// AstSnapshotBench
+//
+// Round trip check and timing for AstSnapshot. Parses the input file,
+// writes it to a snapshot and reads it back, then compares the snapshot
+// the reloaded tree writes and the HIR of both trees, and reports the
+// time to get the tree each way.
+//
+// usage: AstSnapshotBench [-runs n] <input file>
+// **********************************************************************
+public class AstSnapshotBench {
+
+	public static void main(String[] args) throws Exception {
+		int runs = 5;
+		int argIdx = 0;
+		if (args.length == 3 && args[0].equals("-runs")) {
+			runs = Integer.parseInt(args[1]);
+			argIdx = 2;
+		}
+		if (args.length - argIdx != 1) {
+			System.err.println("usage: AstSnapshotBench [-runs n] <input file>");
+			System.exit(-1);
+		}
+		java.nio.CharBuffer input = Yylex.readFile(args[argIdx]);
+
+		long parseTime = Long.MAX_VALUE;
+		Program parsed = null;
+		for (int i = 0; i < runs; ++i) {
+			// the scanner works in place in its buffer
+			char[] chars = Arrays.copyOf(input.array(), input.limit());
+			long start = System.nanoTime();
+			parsed = new FastParser(TokenBuffer.scan(new Yylex(chars, chars.length))).parse();
+			parseTime = Math.min(parseTime, System.nanoTime() - start);
+		}
+		byte[] snapshot = AstSnapshot.write(parsed);
+
+		long readTime = Long.MAX_VALUE;
+		Program reloaded = null;
+		for (int i = 0; i < runs; ++i) {
+			long start = System.nanoTime();
+			reloaded = AstSnapshot.read(snapshot);
+			readTime = Math.min(readTime, System.nanoTime() - start);
+		}
+
+		System.out.printf("%d bytes of source, %d bytes of snapshot%n", input.limit(), snapshot.length);
+		System.out.printf("lex+parse %.1f ms, snapshot read %.1f ms%n", parseTime / 1e6, readTime / 1e6);
+		if (!Arrays.equals(snapshot, AstSnapshot.write(reloaded))) {
+			System.out.println("FAIL: the reloaded tree writes a different snapshot");
+			System.exit(1);
+		}
+		String expected = translate(parsed);
+		String actual = translate(reloaded);
+		if (expected == null || !expected.equals(actual)) {
+			System.out.println(expected == null ? "FAIL: the input does not compile"
+					: "FAIL: the reloaded tree translates to different HIR");
+			System.exit(1);
+		}
+		System.out.println("HIR of the reloaded tree matches (" + expected.length() + " chars)");
+	}
+
+	// The HIR of program, or null if it has semantic errors
+	private static String translate(Program program) {
+		Errors.begin();
+		HIRHelper.resetAll();
+		program.check();
+		boolean ok = Errors.semanticErrors == 0;
+		Errors.end();
+		return ok ? program.translate().getCode().toString() : null;
+	}
+}
@@ -4,8 +4,12 @@ import java_cup.runtime.*;
 // **********************************************************************
 // Main program to test the C-- parser.
 //
-// The program opens the input file (C-- source file), creates a scanner 
+// The program opens the input file (C-- source file), creates a scanner
 // and a parser, and calls the parser and the checker.
+//
+// compile() never exits the JVM: all diagnostics come back in the
+// CompileResult, so one Checker can compile any number of files in a
+// row. Only main() turns the result into output and an exit status.
 // **********************************************************************
 public class Checker {
 
@@ -14,57 +18,289 @@ public class Checker {
     {
         String inName = "";
 		String ouName = "";
+		String cacheDir = null;
+		long cacheMb = 256;
+		boolean stream = false;
+		Checker checker = new Checker();
 
         // check for command-line args
-        if (args.length == 2) {
-            inName = args[0];
-			ouName = args[1];
+        int argIdx = 0;
+        while (argIdx < args.length && args[argIdx].startsWith("-")) {
+            if (args[argIdx].equals("-parallel-lex"))
+                checker.parallelLex = true;
+            else if (args[argIdx].equals("-fast-lex"))
+                checker.fastLex = true;
+            else if (args[argIdx].equals("-fast-parse"))
+                checker.fastParse = true;
+            else if (args[argIdx].equals("-parallel-parse"))
+                checker.parallelParse = true;
+            else if (args[argIdx].equals("-flat-ast"))
+                checker.flatAst = true;
+            else if (args[argIdx].equals("-stream"))
+                stream = true;
+            else if (args[argIdx].equals("-spill")) {
+                stream = true;
+                checker.spill = true;
+            }
+            else if (args[argIdx].equals("-cache") && argIdx + 1 < args.length)
+                cacheDir = args[++argIdx];
+            else if (args[argIdx].equals("-cache-mb") && argIdx + 1 < args.length)
+                cacheMb = Long.parseLong(args[++argIdx]);
+            else
+                usage();
+            argIdx++;
+        }
+        if (args.length - argIdx == 2) {
+            inName = args[argIdx];
+			ouName = args[argIdx + 1];
         } else {
-            System.err.println("usage: Checker <input file> <output file>");
-            System.exit(-1);
+            usage();
         }
+        if (cacheDir != null)
+            checker.cache = new ParseCache(new File(cacheDir), cacheMb * 1024 * 1024);
 
-        // open input file
-        FileReader inFile = null;
-        try {
-            inFile = new FileReader(inName);
-        } catch (FileNotFoundException ex) {
-            System.err.println("File " + inName + " not found.");
-            System.exit(-1);
+        CompileResult result = stream ? checker.compileStreaming(inName, ouName)
+                : checker.compile(inName);
+        for (String message : result.getMessages())
+            System.out.println(message);
+
+        switch (result.getStatus()) {
+            case NOT_FOUND:
+            case PARSE_EXCEPTION:
+            case TOO_DEEP:
+                System.err.println(result.getDetail());
+                System.exit(-1);
+            case SYNTAX_ERRORS:
+                System.exit(-1);
+            case FATAL_ERRORS:
+                System.err.println("Confused by earlier errors: aborting");
+                System.exit(0);
         }
 
-        parser P = new parser(new Yylex(inFile));
+        System.out.println("Semantic Error(s): " + result.getSemanticErrors()
+                + ". Semantic Warning(s): " + result.getSemanticWarnings() + ".");
 
-        Program program = null;
+		if (result.getStatus() == CompileResult.Status.SEMANTIC_ERRORS) {
+			System.err.println("Compile error(s): aborting");
+            System.exit(0);
+		}
+
+		if (result.getCode() != null) {
+			PrintWriter writer = new PrintWriter(ouName, "UTF-8");
+			writer.print(result.getCode());
+			writer.close();
+		}
+    }
 
+    private static void usage() {
+        System.err.println("usage: Checker [-parallel-lex] [-fast-lex] [-fast-parse] [-parallel-parse]\n"
+                + "               [-cache dir] [-cache-mb n] [-flat-ast] [-stream] [-spill]\n"
+                + "               <input file> <output file>");
+        System.exit(-1);
+    }
+
+    // Parses (or loads from the cache), checks and translates the file
+    // inName. Compilations share static state (Errors, HIRHelper, NamePool),
+    // so run one at a time.
+    public CompileResult compile(String inName) throws IOException {
+        Errors.begin();
+        HIRHelper.resetAll();
+        NamePool.reset();
+
+        // open input file, mapped into a single buffer for the scanner; with
+        // a cache the raw bytes are needed for the key
+        java.nio.CharBuffer input = null;
+        byte[] source = null;
         try {
-            program = (Program) P.parse().value; // do the parse
-        } catch (Exception ex) {
-            System.err.println("Exception occured during parse: " + ex);
-            System.exit(-1);
+            if (cache != null)
+                source = java.nio.file.Files.readAllBytes(new File(inName).toPath());
+            else
+                input = Yylex.readFile(inName);
+        } catch (FileNotFoundException | java.nio.file.NoSuchFileException ex) {
+            return result(CompileResult.Status.NOT_FOUND, "File " + inName + " not found.", null);
         }
 
-        if (Errors.fatalError) {
-            System.err.println("Confused by earlier errors: aborting");
-            System.exit(0);
+        Program program = null;
+        String key = null;
+        if (cache != null) {
+            key = ParseCache.key(source);
+            program = cache.load(key);
+            if (program == null)
+                input = java.nio.charset.Charset.defaultCharset().decode(java.nio.ByteBuffer.wrap(source));
         }
 
-        // Semantic checking
-        program.check();
-        
-        System.out.println("Semantic Error(s): " + Errors.semanticErrors
-                + ". Semantic Warning(s): " + Errors.semanticWarns + ".");
+        if (program == null) {
+            try {
+                program = parse(input, null);
+            } catch (Exception ex) {
+                return result(CompileResult.Status.PARSE_EXCEPTION,
+                        "Exception occured during parse: " + ex, null);
+            } catch (StackOverflowError ex) {
+                return result(CompileResult.Status.TOO_DEEP, "Stack overflow during parse", null);
+            }
 
-		if (Errors.semanticErrors > 0) {
-			System.err.println("Compile error(s): aborting");
-            System.exit(0);
-		}
+            if (Errors.syntaxErrors > 0)
+                return result(CompileResult.Status.SYNTAX_ERRORS, null, null);
+            if (Errors.fatalError || program == null)
+                return result(CompileResult.Status.FATAL_ERRORS, null, null);
+            if (cache != null && Errors.messageCount() == 0)
+                cache.store(key, program);
+        }
+
+        // Semantic checking, on the classes or on an AstArena of the tree
+        AstArena arena;
+        try {
+            arena = flatAst ? AstArena.build(program) : null;
+            if (arena != null)
+                arena.check();
+            else
+                program.check();
+        } catch (StackOverflowError ex) {
+            return result(CompileResult.Status.TOO_DEEP, "Stack overflow during check", null);
+        }
+
+        // the counts of the result are these: translation may report errors
+        // of its own (a call to a function only declared ahead) but they do
+        // not stop it
+        int semanticErrors = Errors.semanticErrors;
+        int semanticWarns = Errors.semanticWarns;
+		if (semanticErrors > 0)
+            return result(CompileResult.Status.SEMANTIC_ERRORS, null, null, semanticErrors, semanticWarns);
 
 		// Translating
-		TranslationAG translationAG = program.translate();
-		
-		PrintWriter writer = new PrintWriter(ouName, "UTF-8");
-		writer.print(translationAG.getCode().toString());
-		writer.close();
+		TranslationAG translationAG;
+        try {
+            translationAG = arena != null ? arena.translate() : program.translate();
+        } catch (StackOverflowError ex) {
+            return result(CompileResult.Status.TOO_DEEP, "Stack overflow during translation", null);
+        }
+        return result(CompileResult.Status.OK, null, translationAG.getCode().toString(),
+                semanticErrors, semanticWarns);
+    }
+
+    // Like compile, but each top-level decl is checked, translated and
+    // written to ouName as soon as it is parsed, through a DeclStream, so
+    // only one decl is held at a time. It always parses sequentially:
+    // -parallel-parse, -cache and -flat-ast do not apply. The result has no
+    // code; ouName is written only when the status is OK.
+    //
+    // With -spill the source is also scanned through a Reader rather than
+    // decoded whole into memory (so -fast-lex and -parallel-lex do not
+    // apply either), which lets a source larger than the heap compile.
+    public CompileResult compileStreaming(String inName, String ouName) throws IOException {
+        Errors.begin();
+        HIRHelper.resetAll();
+        NamePool.reset();
+
+        java.nio.CharBuffer input = null;
+        Reader reader = null;
+        try {
+            if (spill)
+                reader = new InputStreamReader(new FileInputStream(inName),
+                        java.nio.charset.Charset.defaultCharset());
+            else
+                input = Yylex.readFile(inName);
+        } catch (FileNotFoundException ex) {
+            return result(CompileResult.Status.NOT_FOUND, "File " + inName + " not found.", null);
+        }
+
+        DeclStream stream = new DeclStream(new File(ouName));
+        boolean compiled = false;
+        try {
+            try {
+                if (reader != null)
+                    parse(new Yylex(reader), null, stream);
+                else
+                    parse(input, stream);
+            } catch (Exception ex) {
+                return result(CompileResult.Status.PARSE_EXCEPTION,
+                        "Exception occured during parse: " + ex, null);
+            } catch (StackOverflowError ex) {
+                // the decls are checked and translated during the parse
+                return result(CompileResult.Status.TOO_DEEP, "Stack overflow during compile", null);
+            }
+
+            if (Errors.syntaxErrors > 0)
+                return result(CompileResult.Status.SYNTAX_ERRORS, null, null);
+            if (Errors.fatalError)
+                return result(CompileResult.Status.FATAL_ERRORS, null, null);
+            if (stream.checkErrors() > 0)
+                return result(CompileResult.Status.SEMANTIC_ERRORS, null, null,
+                        stream.checkErrors(), stream.checkWarnings());
+            compiled = true;
+        } finally {
+            if (reader != null)
+                reader.close();
+            stream.finish(compiled);
+        }
+        return result(CompileResult.Status.OK, null, null, stream.checkErrors(), stream.checkWarnings());
     }
+
+    // With a stream the top-level decls go to it and the Program is empty
+    private Program parse(java.nio.CharBuffer input, DeclStream stream) throws Exception {
+        TokenBuffer tokens = null;
+        Scanner scanner;
+        if (parallelLex) {
+            tokens = TokenBuffer.scanParallel(input.array(), input.limit(),
+                    java.util.concurrent.ForkJoinPool.commonPool());
+            scanner = tokens.scanner();
+        } else if (fastLex)
+            scanner = new FastLexer(input.array(), input.limit());
+        else
+            scanner = new Yylex(input.array(), input.limit());
+
+        if (parallelParse && stream == null) {
+            if (tokens == null) {
+                // the lexical diagnostics are reported as the parse gets to
+                // them, as they are when it reads from the scanner
+                tokens = new TokenBuffer();
+                tokens.holdDiagnostics();
+                try {
+                    if (fastLex)
+                        ((FastLexer) scanner).scanInto(tokens);
+                    else
+                        ((Yylex) scanner).scanInto(tokens);
+                } finally {
+                    tokens.releaseDiagnostics();
+                }
+            }
+            return FastParser.parseParallel(tokens,
+                    java.util.concurrent.ForkJoinPool.commonPool());
+        }
+        return parse(scanner, tokens, stream);
+    }
+
+    // Parses from scanner, or from tokens when they have been scanned already
+    private Program parse(Scanner scanner, TokenBuffer tokens, DeclStream stream) throws Exception {
+        if (fastParse) {
+            FastParser fastParser = tokens != null ? new FastParser(tokens) : new FastParser(scanner);
+            fastParser.setStream(stream);
+            return fastParser.parse();
+        }
+        parser cupParser = new parser(scanner);
+        cupParser.setStream(stream);
+        Symbol root = cupParser.parse(); // do the parse
+        // after an unrecovered error root is whatever was reduced last
+        return Errors.syntaxErrors == 0 ? (Program) root.value : null;
+    }
+
+    private static CompileResult result(CompileResult.Status status, String detail, String code) {
+        return result(status, detail, code, Errors.semanticErrors, Errors.semanticWarns);
+    }
+
+    // Once the program is checked the semantic counts are the ones taken
+    // after the check
+    private static CompileResult result(CompileResult.Status status, String detail, String code,
+            int semanticErrors, int semanticWarns) {
+        return new CompileResult(status, detail, Errors.end(), Errors.syntaxErrors,
+                semanticErrors, semanticWarns, code);
+    }
+
+    private boolean parallelLex = false;
+    private boolean fastLex = false;
+    private boolean fastParse = false;
+    private boolean parallelParse = false;
+    private boolean flatAst = false;
+    private boolean spill = false;
+    private ParseCache cache = null;
 }
@@ -0,0 +1,348 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// **********************************************************************
+// CompileCheck
+//
+// Regression check for the Checker modes. Writes each case below to a
+// temp directory and compiles it with a separate Checker process (with
+// the default stack, as a user would run it) once per mode. Every mode
+// must give what the default mode gives: the same exit status, output
+// and HIR file, and the HIR only when the case is expected to compile.
+// Prints one line per case and mode and exits 1 if any of them fails.
+//
+// usage: CompileCheck [-cases a,b,...] [-modes a,b,...] [-keep dir]
+// **********************************************************************
+public class CompileCheck {
+
+	public static void main(String[] args) throws Exception {
+		List<String> cases = null;
+		List<String> modes = null;
+		File dir = null;
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-cases") && i + 1 < args.length)
+				cases = Arrays.asList(args[++i].split(","));
+			else if (args[i].equals("-modes") && i + 1 < args.length)
+				modes = Arrays.asList(args[++i].split(","));
+			else if (args[i].equals("-keep") && i + 1 < args.length)
+				dir = new File(args[++i]);
+			else
+				usage();
+		}
+		boolean keep = dir != null;
+		if (dir == null)
+			dir = Files.createTempDirectory("compilecheck").toFile();
+		dir.mkdirs();
+
+		int failures = 0;
+		try {
+			for (Case c : CASES) {
+				if (cases != null && !cases.contains(c.name))
+					continue;
+				File source = new File(dir, c.name + ".c");
+				write(source, c.source());
+				Run expected = null;
+				for (int m = 0; m < MODES.length; ++m) {
+					String mode = MODES[m][0];
+					if (m > 0 && modes != null && !modes.contains(mode))
+						continue;
+					Run run = run(dir, source, c.name + "." + mode, MODES[m]);
+					String problem = m == 0 ? c.verify(run) : compare(expected, run);
+					if (m == 0)
+						expected = run;
+					System.out.printf("%-12s %-16s %s%n", c.name, mode,
+							problem == null ? "ok" : "FAILED: " + problem);
+					if (problem != null)
+						failures++;
+				}
+			}
+		} finally {
+			if (!keep)
+				delete(dir);
+		}
+		System.out.println(failures == 0 ? "All checks passed." : failures + " check(s) failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void usage() {
+		System.err.println("usage: CompileCheck [-cases a,b,...] [-modes a,b,...] [-keep dir]");
+		System.exit(-1);
+	}
+
+	// ****************************************************************
+	// Modes
+	// ****************************************************************
+
+	// A name and the Checker flags; the first one is what the rest are
+	// compared with. The cache is run twice, to store and then to load.
+	private static final String[][] MODES = {
+		{ "default" },
+		{ "parallel-lex", "-parallel-lex" },
+		{ "fast-lex", "-fast-lex" },
+		{ "fast-parse", "-fast-parse" },
+		{ "fast", "-fast-lex", "-fast-parse" },
+		{ "parallel-parse", "-parallel-parse" },
+		{ "flat-ast", "-flat-ast" },
+		{ "cache-store", "-cache", "" },
+		{ "cache-load", "-cache", "" },
+		{ "stream", "-stream" },
+		{ "stream-fast", "-stream", "-fast-parse" },
+		{ "spill", "-spill" }
+	};
+
+	// What one Checker process did
+	private static class Run {
+		int exit;
+		String stdout;
+		String stderr;
+		byte[] hir; // null when no output file was written
+	}
+
+	private static Run run(File dir, File source, String name, String[] mode) throws Exception {
+		File out = new File(dir, name + ".hir");
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("Checker");
+		for (int i = 1; i < mode.length; ++i)
+			command.add(mode[i].isEmpty() ? new File(dir, "cache").getPath() : mode[i]);
+		command.add(source.getPath());
+		command.add(out.getPath());
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		File stdout = new File(dir, name + ".out");
+		File stderr = new File(dir, name + ".err");
+		builder.redirectOutput(stdout);
+		builder.redirectError(stderr);
+		Run run = new Run();
+		run.exit = builder.start().waitFor();
+		run.stdout = read(stdout);
+		run.stderr = read(stderr);
+		run.hir = out.exists() ? Files.readAllBytes(out.toPath()) : null;
+		out.delete();
+		return run;
+	}
+
+	private static String compare(Run expected, Run run) {
+		if (run.exit != expected.exit)
+			return "exit status " + run.exit + ", expected " + expected.exit + firstLine(run.stderr);
+		if (!run.stderr.equals(expected.stderr))
+			return "stderr differs" + firstLine(run.stderr);
+		if (!run.stdout.equals(expected.stdout))
+			return "stdout differs" + firstLine(run.stdout);
+		if (run.hir == null || expected.hir == null)
+			return run.hir == expected.hir ? null
+					: run.hir == null ? "no HIR written" : "HIR written, expected none";
+		return Arrays.equals(run.hir, expected.hir) ? null : "HIR differs";
+	}
+
+	private static String firstLine(String text) {
+		int end = text.indexOf('\n');
+		String line = end < 0 ? text : text.substring(0, end);
+		return line.isEmpty() ? "" : " (" + line + ")";
+	}
+
+	// ****************************************************************
+	// Cases
+	// ****************************************************************
+
+	private abstract static class Case {
+		final String name;
+		final boolean compiles;
+		final int exit; // of the Checker process
+
+		Case(String name, boolean compiles) {
+			this(name, compiles, 0);
+		}
+
+		Case(String name, boolean compiles, int exit) {
+			this.name = name;
+			this.compiles = compiles;
+			this.exit = exit;
+		}
+
+		abstract String source();
+
+		// Checks the default mode on its own, as there is nothing to
+		// compare it with
+		String verify(Run run) {
+			if (run.exit != exit)
+				return "exit status " + run.exit + ", expected " + exit + firstLine(run.stderr);
+			if (compiles && run.hir == null)
+				return "no HIR written" + firstLine(run.stderr);
+			if (compiles && !run.stdout.contains("Semantic Error(s): 0."))
+				return "semantic errors counted" + firstLine(run.stdout);
+			if (!compiles && run.hir != null)
+				return "HIR written, expected none";
+			return null;
+		}
+	}
+
+	private static Case fixed(String name, boolean compiles, final String source) {
+		return new Case(name, compiles) {
+			String source() {
+				return source;
+			}
+		};
+	}
+
+	// the exit status of Checker after syntax errors, System.exit(-1)
+	private static final int SYNTAX_ERRORS = 255;
+
+	private static final Case[] CASES = {
+		// f is only declared ahead where k calls it, so the translation of
+		// k reports that f has not been declared; the check passes, and
+		// the program compiles with no semantic error counted
+		fixed("forward", true,
+				"int f(int p);\n"
+				+ "int k() {\n"
+				+ "\treturn f(f(1));\n"
+				+ "}\n"
+				+ "int f(int p) {\n"
+				+ "\treturn p;\n"
+				+ "}\n"
+				+ "void main() {\n"
+				+ "}\n"),
+		fixed("undeclared", false,
+				"void main() {\n"
+				+ "\tx = 1;\n"
+				+ "}\n"),
+		// illegal characters spread over a source long enough that
+		// -parallel-lex scans it in several chunks; each must be reported
+		// on its own line, in order
+		new Case("lexical", false) {
+			String source() {
+				StringBuilder out = new StringBuilder();
+				for (int i = 1; i <= 6000; ++i) {
+					out.append("int v").append(i);
+					out.append(i % 1500 == 1 ? "$;" : "; // padding to lengthen the line");
+					out.append('\n');
+				}
+				return out.append("void main() {\n}\n").toString();
+			}
+		},
+		// syntax errors among the lexical ones, some on the same line: every
+		// mode must report them in the order of the default parse, which
+		// reads the tokens as it goes, through as many chunks and runs
+		new Case("lexical-syntax", false, SYNTAX_ERRORS) {
+			String source() {
+				StringBuilder out = new StringBuilder();
+				for (int i = 1; i <= 6000; ++i) {
+					out.append("int v").append(i);
+					if (i % 1500 == 1)
+						out.append("$;");
+					else if (i % 1500 == 700)
+						out.append(" $ 5 \"\\q\" $;");
+					else if (i % 1500 == 1100)
+						out.append(" 5 \"\\q\";");
+					else
+						out.append("; // padding to lengthen the line");
+					out.append('\n');
+				}
+				return out.append("void main() {\n}\n").toString();
+			}
+		},
+		// several syntax errors a file, for every mode to recover from as
+		// CUP does. The first comes where a decl should start, right after
+		// the 1490 functions of 11 tokens that make the first
+		// -parallel-parse run, and CUP recovers from it in the body of the
+		// last function; the ones after skip to a SEMICOLON or RCURLY, some
+		// past one that the next tokens do not parse after
+		new Case("syntax", false, SYNTAX_ERRORS) {
+			String source() {
+				StringBuilder out = new StringBuilder();
+				for (int i = 1; i <= 1490; ++i)
+					out.append("int f").append(i).append("(int a) {\n\treturn a;\n}\n");
+				return out.append("x;\n")
+						.append("int f(int a) {\n\treturn a;\n}\n")
+						.append("void main() {\n\tint a;\n\ta = ;\n\ta = 1 b; c = 2;\n")
+						.append("\tif (a) {\n\t\ta = 1\n\t}\n\twhile (a) { ; }\n\ta = 2;\n}\n")
+						.append("int g(int a) {\n\treturn a +;\n}\n")
+						.append("int h; } int k;\n")
+						.append("int m(int a) {\n\ta = 1;\n").toString();
+			}
+		},
+		// programs nested or chained deeper than any recursion over them
+		// fits in the default stack
+		new Case("plus-chain", true) {
+			String source() {
+				return "void main() {\n\tint a;\n\ta = 1;\n\ta = "
+						+ repeat("a + ", 999999) + "a;\n}\n";
+			}
+		},
+		new Case("and-chain", true) {
+			String source() {
+				return "void main() {\n\tint a;\n\ta = 1;\n\tif ("
+						+ repeat("a < 2 && ", 999999) + "a < 2) {\n\t\ta = 2;\n\t}\n}\n";
+			}
+		},
+		new Case("nested-if", true) {
+			String source() {
+				return "void main() {\n\tint a;\n\ta = 0;\n"
+						+ repeat("if (a < 1) {\n", 10000) + "a = a + 1;\n"
+						+ repeat("}\n", 10000) + "}\n";
+			}
+		},
+		new Case("parens", true) {
+			String source() {
+				return "void main() {\n\tint a;\n\ta = 1;\n\ta = "
+						+ repeat("a + (", 100000) + "a" + repeat(")", 100000) + ";\n}\n";
+			}
+		},
+		// as many functions of a deep exp as it takes for -parallel-parse to
+		// parse them in several runs on its pool
+		new Case("nested-call", true) {
+			String source() {
+				return "int f(int p, int q) {\n\treturn q;\n}\n"
+						+ functions(repeat("f(a, ", 5000) + "a" + repeat(")", 5000));
+			}
+		},
+		new Case("nested-index", true) {
+			String source() {
+				return "int g[4];\n"
+						+ functions(repeat("g[", 10000) + "a" + repeat("]", 10000));
+			}
+		}
+	};
+
+	// Functions k0 to k3 returning exp, of their int a, and an empty main
+	private static String functions(String exp) {
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < 4; ++i)
+			out.append("int k").append(i).append("(int a) {\n\treturn ").append(exp).append(";\n}\n");
+		return out.append("void main() {\n}\n").toString();
+	}
+
+	private static String repeat(String text, int n) {
+		StringBuilder out = new StringBuilder(text.length() * n);
+		for (int i = 0; i < n; ++i)
+			out.append(text);
+		return out.toString();
+	}
+
+	// ****************************************************************
+	// Files
+	// ****************************************************************
+
+	private static void write(File file, String text) throws IOException {
+		Writer writer = new BufferedWriter(new FileWriter(file));
+		writer.write(text);
+		writer.close();
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()));
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+}
@@ -0,0 +1,75 @@
+import java.util.List;
+
+// **********************************************************************
+// CompileResult
+//
+// Outcome of one Checker.compile: how far the compilation got, every
+// message in the order it was reported, the error counts, and the HIR
+// code when the program was translated. The semantic counts are the ones
+// taken after checking; translation can report more, which do not stop it.
+// **********************************************************************
+class CompileResult {
+
+	enum Status {
+		OK,
+		NOT_FOUND,       // the input file does not exist
+		PARSE_EXCEPTION, // the scanner or parser threw
+		SYNTAX_ERRORS,
+		FATAL_ERRORS,    // lexical errors only
+		SEMANTIC_ERRORS,
+		TOO_DEEP         // the stack overflowed on a deeply nested program
+	}
+
+	public CompileResult(Status status, String detail, List<String> messages,
+			int syntaxErrors, int semanticErrors, int semanticWarnings, String code) {
+		this.status = status;
+		this.detail = detail;
+		this.messages = messages;
+		this.syntaxErrors = syntaxErrors;
+		this.semanticErrors = semanticErrors;
+		this.semanticWarnings = semanticWarnings;
+		this.code = code;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean succeeded() {
+		return status == Status.OK;
+	}
+
+	// Why the compilation stopped, for the statuses that have no messages
+	public String getDetail() {
+		return detail;
+	}
+
+	public List<String> getMessages() {
+		return messages;
+	}
+
+	public int getSyntaxErrors() {
+		return syntaxErrors;
+	}
+
+	public int getSemanticErrors() {
+		return semanticErrors;
+	}
+
+	public int getSemanticWarnings() {
+		return semanticWarnings;
+	}
+
+	// The HIR code, or null unless the status is OK
+	public String getCode() {
+		return code;
+	}
+
+	private Status status;
+	private String detail;
+	private List<String> messages;
+	private int syntaxErrors;
+	private int semanticErrors;
+	private int semanticWarnings;
+	private String code;
+}
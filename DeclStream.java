@@ -0,0 +1,143 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+// **********************************************************************
+// DeclStream
+//
+// Compiles a program one top-level decl at a time, as the parser reduces
+// them (see Checker -stream). Each decl is checked, then translated while
+// no decl so far has failed its check, and its code written out, so no decl
+// is kept once the parser has handed it over. What outlives a decl is the
+// two global SymbolTables, the check's and the translation's, and the
+// index of the segment files below.
+//
+// The header (the str lines and entry main_, N) comes first in the HIR but
+// depends on every decl, so nothing goes to the output until finish().
+// Until then the code of the decls is appended to temp segment files next
+// to the output, a new one every SEGMENT_SIZE chars, and the str lines of
+// their string constants to a segment of their own. finish() concatenates
+// the str segment, the entry line and the code segments into the output
+// with FileChannel.transferTo. A program that does not compile leaves no
+// output.
+// **********************************************************************
+class DeclStream {
+
+	public DeclStream(File out) throws IOException {
+		this.out = out;
+		dir = out.getAbsoluteFile().getParentFile();
+		constSegment = newSegment();
+		constWriter = writer(constSegment);
+		Program.beginTranslation();
+	}
+
+	// Nothing is done from the first syntax or lexical error on, as
+	// Checker.compile checks nothing then
+	public void add(Decl decl) throws IOException {
+		if (Errors.fatalError)
+			return;
+		// translation can report errors of its own (a call to a function
+		// that is only declared ahead), which Checker.compile ignores, so
+		// only the errors of the check count
+		int errors = Errors.semanticErrors;
+		int warns = Errors.semanticWarns;
+		decl.check(checkSymbolTable);
+		checkErrors += Errors.semanticErrors - errors;
+		checkWarnings += Errors.semanticWarns - warns;
+		if (checkErrors > 0)
+			return;
+		decl.setScope(Scope.GLOBAL);
+		StringBuilder code = decl.translate(translateSymbolTable).getCode();
+		for (String item : Program.takeConsts())
+			constWriter.append(HIRHelper.addConst(item)).append('\n');
+		if (code.length() == 0)
+			return;
+		if (segmentWriter == null || segmentChars >= SEGMENT_SIZE) {
+			if (segmentWriter != null)
+				segmentWriter.close();
+			File segment = newSegment();
+			segments.add(segment);
+			segmentWriter = writer(segment);
+			segmentChars = 0;
+		}
+		segmentWriter.append(code);
+		segmentChars += code.length();
+	}
+
+	// Semantic errors reported while checking the decls so far
+	public int checkErrors() {
+		return checkErrors;
+	}
+
+	// Semantic warnings reported while checking the decls so far
+	public int checkWarnings() {
+		return checkWarnings;
+	}
+
+	// Writes the output when compiled is true, and deletes the segments
+	// either way
+	public void finish(boolean compiled) throws IOException {
+		try {
+			constWriter.close();
+			if (segmentWriter != null)
+				segmentWriter.close();
+			if (!compiled)
+				return;
+			FileChannel channel = new FileOutputStream(out).getChannel();
+			try {
+				transfer(constSegment, channel);
+				// every constant has been taken, so the header is the entry line
+				ByteBuffer entry = ByteBuffer.wrap(Program.header().getCode().toString().getBytes("UTF-8"));
+				while (entry.hasRemaining())
+					channel.write(entry);
+				for (File segment : segments) {
+					transfer(segment, channel);
+					segment.delete();
+				}
+			} finally {
+				channel.close();
+			}
+		} finally {
+			constSegment.delete();
+			for (File segment : segments)
+				segment.delete();
+		}
+	}
+
+	private File newSegment() throws IOException {
+		return File.createTempFile(out.getName() + ".", ".part", dir);
+	}
+
+	private static Writer writer(File segment) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(segment), "UTF-8"));
+	}
+
+	// Appends the whole of from to to
+	private static void transfer(File from, FileChannel to) throws IOException {
+		FileChannel channel = new FileInputStream(from).getChannel();
+		try {
+			long size = channel.size();
+			for (long position = 0; position < size; )
+				position += channel.transferTo(position, size - position, to);
+		} finally {
+			channel.close();
+		}
+	}
+
+	// Code segments roll over at this many chars, so a big program makes a
+	// few large files rather than one per function
+	private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	private final File out;
+	private final File dir;
+	private final File constSegment;
+	private final Writer constWriter;
+	private final ArrayList<File> segments = new ArrayList<File>();
+	private Writer segmentWriter = null;
+	private long segmentChars;
+	private int checkErrors = 0;
+	private int checkWarnings = 0;
+	private final SymbolTable checkSymbolTable = new SymbolTable();
+	private final SymbolTable translateSymbolTable = new SymbolTable();
+}
@@ -1,26 +1,45 @@
+import java.util.ArrayList;
+import java.util.List;
+
 // This class is used to generate warning and error messages.
 class Errors {
-    static void fatal(int lineNum, int charNum, String msg) {
-        System.out.println(lineNum + ":" + charNum + " **ERROR** " + msg);
+    static synchronized void fatal(int lineNum, int charNum, String msg) {
+        if (held(FATAL, lineNum, charNum, msg))
+            return;
+        report(lineNum + ":" + charNum + " **ERROR** " + msg);
         fatalError = true;
     }
 
-    static void warn(int lineNum, int charNum, String msg) {
-        System.out.println(lineNum + ":" + charNum + " **WARNING** " + msg);
+    static synchronized void syntaxError(int lineNum, int charNum, String msg) {
+        if (held(SYNTAX_ERROR, lineNum, charNum, msg))
+            return;
+        fatal(lineNum, charNum, msg);
+        syntaxErrors++;
+    }
+
+    static synchronized void warn(int lineNum, int charNum, String msg) {
+        if (held(WARN, lineNum, charNum, msg))
+            return;
+        report(lineNum + ":" + charNum + " **WARNING** " + msg);
     }
-    
+
     static boolean fatalError = false;
-    
-    static void semanticError(int lineNum, int charNum, String msg) {
-        System.out.println(lineNum + ":" + charNum + " **SEMANTIC ERROR** " + msg);
+    static int syntaxErrors = 0;
+
+    static synchronized void semanticError(int lineNum, int charNum, String msg) {
+        if (held(SEMANTIC_ERROR, lineNum, charNum, msg))
+            return;
+        report(lineNum + ":" + charNum + " **SEMANTIC ERROR** " + msg);
         semanticErrors++;
     }
 
-    static void semanticWarn(int lineNum, int charNum, String msg) {
-        System.out.println(lineNum + ":" + charNum + " **SEMANTIC WARNING** " + msg);
+    static synchronized void semanticWarn(int lineNum, int charNum, String msg) {
+        if (held(SEMANTIC_WARN, lineNum, charNum, msg))
+            return;
+        report(lineNum + ":" + charNum + " **SEMANTIC WARNING** " + msg);
         semanticWarns++;
     }
-    
+
     static int semanticErrors = 0;
     static int semanticWarns = 0;
 
@@ -34,4 +53,150 @@ class Errors {
 				break;
 		}
 	}
+
+	// Starts a new compilation: clears the counts and collects the messages
+	// until end() instead of printing them
+	static synchronized void begin() {
+		fatalError = false;
+		syntaxErrors = 0;
+		semanticErrors = 0;
+		semanticWarns = 0;
+		messages = new ArrayList<String>();
+	}
+
+	// Returns the messages since begin() and goes back to printing them
+	static synchronized List<String> end() {
+		List<String> ret = messages;
+		messages = null;
+		return ret;
+	}
+
+	// Number of messages since begin()
+	static synchronized int messageCount() {
+		return messages == null ? 0 : messages.size();
+	}
+
+	private static void report(String message) {
+		if (messages != null)
+			messages.add(message);
+		else
+			System.out.println(message);
+	}
+
+	private static List<String> messages = null;
+
+	// Diagnostics held back on one thread instead of reported, so that
+	// TokenBuffer.scanParallel can put each chunk's in its place: a chunk
+	// scanner numbers lines from the start of its chunk and runs
+	// alongside the others. A buffer of a TokenBuffer also notes, for each
+	// diagnostic, the index of the token being scanned when it came, so a
+	// parser of the tokens can report it when it gets to that token.
+	static class Buffer {
+
+		Buffer() {
+			this(null);
+		}
+
+		Buffer(TokenBuffer tokens) {
+			this.tokens = tokens;
+		}
+
+		// Holds back what this thread reports from now until release()
+		void hold() {
+			buffers.set(this);
+		}
+
+		void release() {
+			buffers.remove();
+		}
+
+		// Reports everything held, in order, lineOffset lines down
+		void replay(int lineOffset) {
+			replay(0, kinds.size(), lineOffset);
+		}
+
+		// Reports diagnostics [from, to) in order, lineOffset lines down
+		void replay(int from, int to, int lineOffset) {
+			for (int i = from; i < to; ++i) {
+				int lineNum = lineNums.get(i) + lineOffset;
+				int charNum = charNums.get(i);
+				String msg = msgs.get(i);
+				switch (kinds.get(i)) {
+					case FATAL:
+						fatal(lineNum, charNum, msg);
+						break;
+					case SYNTAX_ERROR:
+						syntaxError(lineNum, charNum, msg);
+						break;
+					case WARN:
+						warn(lineNum, charNum, msg);
+						break;
+					case SEMANTIC_ERROR:
+						semanticError(lineNum, charNum, msg);
+						break;
+					case SEMANTIC_WARN:
+						semanticWarn(lineNum, charNum, msg);
+						break;
+				}
+			}
+		}
+
+		// Holds everything other holds as well, lineOffset lines and
+		// tokenOffset tokens down
+		void append(Buffer other, int lineOffset, int tokenOffset) {
+			for (int i = 0; i < other.kinds.size(); ++i) {
+				kinds.add(other.kinds.get(i));
+				lineNums.add(other.lineNums.get(i) + lineOffset);
+				charNums.add(other.charNums.get(i));
+				msgs.add(other.msgs.get(i));
+				tokenIdxs.add(other.tokenIdxs.get(i) + tokenOffset);
+			}
+		}
+
+		int size() {
+			return kinds.size();
+		}
+
+		// Index of the token scanned when diagnostic i came
+		int tokenIdx(int i) {
+			return tokenIdxs.get(i);
+		}
+
+		// What is held, one diagnostic per line
+		public String toString() {
+			StringBuilder ret = new StringBuilder();
+			for (int i = 0; i < kinds.size(); ++i)
+				ret.append(kinds.get(i)).append(' ').append(lineNums.get(i)).append(':')
+						.append(charNums.get(i)).append(' ').append(msgs.get(i)).append('\n');
+			return ret.toString();
+		}
+
+		private final ArrayList<Integer> kinds = new ArrayList<Integer>();
+		private final ArrayList<Integer> lineNums = new ArrayList<Integer>();
+		private final ArrayList<Integer> charNums = new ArrayList<Integer>();
+		private final ArrayList<String> msgs = new ArrayList<String>();
+		private final ArrayList<Integer> tokenIdxs = new ArrayList<Integer>();
+		private final TokenBuffer tokens;
+	}
+
+	// Adds the diagnostic to the buffer of this thread, if it has one
+	private static boolean held(int kind, int lineNum, int charNum, String msg) {
+		Buffer buffer = buffers.get();
+		if (buffer == null)
+			return false;
+		buffer.kinds.add(kind);
+		buffer.lineNums.add(lineNum);
+		buffer.charNums.add(charNum);
+		buffer.msgs.add(msg);
+		buffer.tokenIdxs.add(buffer.tokens == null ? 0 : buffer.tokens.size());
+		return true;
+	}
+
+	private static final int FATAL = 0;
+	private static final int SYNTAX_ERROR = 1;
+	private static final int WARN = 2;
+	private static final int SEMANTIC_ERROR = 3;
+	private static final int SEMANTIC_WARN = 4;
+
+	private static final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>();
 }
@@ -0,0 +1,317 @@
+import java.io.*;
+import java_cup.runtime.*;
+
+// **********************************************************************
+// FastLexer
+//
+// Hand-written scanner for the same token set as c.jlex. It walks the
+// input with plain ASCII tests instead of the JLex tables and recognises
+// keywords with a perfect hash on the identifier just scanned. Tokens,
+// positions and diagnostics are the same as Yylex produces, except that
+// characters outside ASCII are reported as illegal characters where the
+// JLex tables fail with an exception.
+// **********************************************************************
+class FastLexer implements Scanner {
+
+	public FastLexer(char[] input, int length) {
+		this.input = input;
+		this.length = length;
+		pos = 0;
+		line = 1;
+		charNum = 1;
+	}
+
+	// Scans the remaining input into buffer (see Yylex.scanInto)
+	public void scanInto(TokenBuffer buffer) {
+		tokens = buffer;
+		try {
+			while (next_token().sym != sym.EOF)
+				;
+		} finally {
+			tokens = null;
+		}
+	}
+
+	public Symbol next_token() {
+		while (pos < length) {
+			int start = pos;
+			char c = input[pos];
+
+			if (isIdentStart(c)) {
+				pos++;
+				while (pos < length && isIdentPart(input[pos]))
+					pos++;
+				int kind = keyword(start, pos - start);
+				if (kind >= 0)
+					return token(kind, start);
+				return nameToken(start);
+			}
+
+			if (c >= '0' && c <= '9') {
+				pos++;
+				while (pos < length && input[pos] >= '0' && input[pos] <= '9')
+					pos++;
+				return intToken(start);
+			}
+
+			switch (c) {
+				case ' ':
+				case '\t':
+					pos++;
+					while (pos < length && (input[pos] == ' ' || input[pos] == '\t'))
+						pos++;
+					charNum += pos - start;
+					continue;
+				case '\n':
+					pos++;
+					line++;
+					charNum = 1;
+					continue;
+				case '\r':
+					pos++;
+					charNum = 1;
+					continue;
+				case '#':
+					skipComment();
+					continue;
+				case '"':
+					Symbol s = stringLiteral();
+					if (s != null)
+						return s;
+					continue;
+				case '{':
+					return token(sym.LCURLY, ++pos - 1);
+				case '}':
+					return token(sym.RCURLY, ++pos - 1);
+				case '(':
+					return token(sym.LPAREN, ++pos - 1);
+				case ')':
+					return token(sym.RPAREN, ++pos - 1);
+				case '[':
+					return token(sym.LSQBRACKET, ++pos - 1);
+				case ']':
+					return token(sym.RSQBRACKET, ++pos - 1);
+				case ',':
+					return token(sym.COMMA, ++pos - 1);
+				case ';':
+					return token(sym.SEMICOLON, ++pos - 1);
+				case '%':
+					return token(sym.PERCENT, ++pos - 1);
+				case '=':
+					return operator(sym.ASSIGN, '=', sym.EQUALS);
+				case '+':
+					return operator(sym.PLUS, '=', sym.PLUSEQL);
+				case '-':
+					return operator(sym.MINUS, '=', sym.MINUSEQL);
+				case '*':
+					return operator(sym.TIMES, '=', sym.TIMESEQL);
+				case '!':
+					return operator(sym.NOT, '=', sym.NOTEQUALS);
+				case '&':
+					return operator(sym.ADDROF, '&', sym.AND);
+				case '<':
+					return operator(sym.LESS, '=', sym.LESSEQ);
+				case '>':
+					return operator(sym.GREATER, '=', sym.GREATEREQ);
+				case '/':
+					if (pos + 1 < length && input[pos + 1] == '/') {
+						skipComment();
+						continue;
+					}
+					return operator(sym.DIVIDE, '=', sym.DIVEQL);
+				case '|':
+					if (pos + 1 < length && input[pos + 1] == '|') {
+						pos += 2;
+						return token(sym.OR, start);
+					}
+					break;
+			}
+
+			// anything else is a single illegal character
+			Errors.fatal(line, charNum, "ignoring illegal character: " + c);
+			pos++;
+			charNum++;
+		}
+		return new Symbol(sym.EOF);
+	}
+
+	private static boolean isIdentStart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	private static boolean isIdentPart(char c) {
+		return isIdentStart(c) || (c >= '0' && c <= '9');
+	}
+
+	// Returns the sym code of the keyword in input[start, start + len), or
+	// -1 if it is not a keyword
+	private int keyword(int start, int len) {
+		if (len < 2 || len > 6)
+			return -1;
+		int slot = (input[start + 1] + len) & (KEYWORD_SLOTS - 1);
+		char[] word = KEYWORDS[slot];
+		if (word == null || word.length != len)
+			return -1;
+		for (int i = 0; i < len; ++i)
+			if (input[start + i] != word[i])
+				return -1;
+		return KEYWORD_KINDS[slot];
+	}
+
+	// Scans a one-character operator, or the two-character one if the next
+	// character is second
+	private Symbol operator(int single, char second, int pair) {
+		int start = pos;
+		if (pos + 1 < length && input[pos + 1] == second) {
+			pos += 2;
+			return token(pair, start);
+		}
+		pos++;
+		return token(single, start);
+	}
+
+	// "//" or "#" up to (not including) the end of the line
+	private void skipComment() {
+		int start = pos;
+		while (pos < length && input[pos] != '\n')
+			pos++;
+		charNum += pos - start;
+	}
+
+	// Scans a string literal starting at the opening quote. Returns null if
+	// the literal was reported and dropped.
+	private Symbol stringLiteral() {
+		int start = pos;
+		int i = pos + 1;
+		boolean badEscape = false;
+		while (i < length) {
+			char c = input[i];
+			if (c == '"' || c == '\n')
+				break;
+			if (c == '\\') {
+				if (i + 1 >= length || input[i + 1] == '\n')
+					break;
+				if (!StringTokenVal.isEscape(input[i + 1]))
+					badEscape = true;
+				i += 2;
+			} else {
+				i++;
+			}
+		}
+
+		if (i < length && input[i] == '"') {
+			pos = i + 1;
+			if (badEscape) {
+				Errors.fatal(line, charNum, "ignoring string literal with bad escaped character");
+				charNum += pos - start;
+				return null;
+			}
+			return stringToken(start);
+		}
+
+		// an unterminated literal runs to the end of the line, which may end
+		// in a single backslash
+		int end = i;
+		if (end < length && input[end] == '\\')
+			end++;
+		if (end < length && input[end] == '\n') {
+			if (end > i)
+				badEscape = true;
+			if (badEscape)
+				Errors.fatal(line, charNum, "ignoring unterminated string literal with bad escaped character");
+			else
+				Errors.fatal(line, charNum, "ignoring unterminated string literal");
+			pos = end + 1;
+			line++;
+			charNum = 1;
+			return null;
+		}
+
+		// no newline before the end of input: the quote alone is illegal
+		Errors.fatal(line, charNum, "ignoring illegal character: \"");
+		pos++;
+		charNum++;
+		return null;
+	}
+
+	private Symbol token(int kind, int start) {
+		int charnum = charNum;
+		charNum += pos - start;
+		if (tokens != null) {
+			tokens.add(kind, line, charnum, -1);
+			return RECORDED;
+		}
+		return new Symbol(kind, new TokenVal(line, charnum));
+	}
+
+	private Symbol intToken(int start) {
+		int charnum = charNum;
+		long val = 0;
+		for (int i = start; i < pos && val <= Integer.MAX_VALUE; ++i)
+			val = 10 * val + (input[i] - '0');
+		if (val > Integer.MAX_VALUE) {
+			Errors.warn(line, charnum, "integer literal too large; using max value");
+			val = Integer.MAX_VALUE;
+		}
+		charNum += pos - start;
+		if (tokens != null) {
+			tokens.add(sym.INTLITERAL, line, charnum, (int) val);
+			return RECORDED;
+		}
+		return new Symbol(sym.INTLITERAL, new IntLitTokenVal(line, charnum, (int) val));
+	}
+
+	private Symbol nameToken(int start) {
+		int charnum = charNum;
+		charNum += pos - start;
+		if (tokens != null) {
+			tokens.add(sym.ID, line, charnum, tokens.addName(input, start, pos - start));
+			return RECORDED;
+		}
+		int id = NamePool.intern(input, start, pos - start);
+		return new Symbol(sym.ID, new StringTokenVal(line, charnum, id));
+	}
+
+	private Symbol stringToken(int start) {
+		int charnum = charNum;
+		String val = new String(input, start, pos - start);
+		charNum += pos - start;
+		if (tokens != null) {
+			tokens.add(sym.STRINGLITERAL, line, charnum, tokens.addString(val));
+			return RECORDED;
+		}
+		return new Symbol(sym.STRINGLITERAL, new StringTokenVal(line, charnum, val));
+	}
+
+	// keywords, placed by (second character + length) mod KEYWORD_SLOTS
+	private static final int KEYWORD_SLOTS = 16;
+	private static final char[][] KEYWORDS = new char[KEYWORD_SLOTS][];
+	private static final int[] KEYWORD_KINDS = new int[KEYWORD_SLOTS];
+
+	private static void addKeyword(String word, int kind) {
+		int slot = (word.charAt(1) + word.length()) & (KEYWORD_SLOTS - 1);
+		if (KEYWORDS[slot] != null)
+			throw new Error("keyword hash collision: " + word);
+		KEYWORDS[slot] = word.toCharArray();
+		KEYWORD_KINDS[slot] = kind;
+	}
+
+	static {
+		addKeyword("int", sym.INT);
+		addKeyword("void", sym.VOID);
+		addKeyword("if", sym.IF);
+		addKeyword("else", sym.ELSE);
+		addKeyword("while", sym.WHILE);
+		addKeyword("for", sym.FOR);
+		addKeyword("return", sym.RETURN);
+	}
+
+	private static final Symbol RECORDED = new Symbol(sym.error);
+
+	private final char[] input;
+	private final int length;
+	private int pos;
+	private int line;
+	private int charNum;
+	private TokenBuffer tokens;
+}
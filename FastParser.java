@@ -0,0 +1,930 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java_cup.runtime.*;
+
+// **********************************************************************
+// FastParser
+//
+// Hand-written recursive-descent parser for the grammar in c.cup. It
+// builds the same nodes, in the same order, as the actions of the CUP
+// parser, but needs no boxed values. Nested blocks and expressions are
+// kept on explicit stacks, so nothing recurses as deep as the input nests.
+// Expressions are parsed by precedence climbing with the precedence table
+// of c.cup:
+//
+//     OR < AND < EQUALS NOTEQUALS (nonassoc) < LESS GREATER LESSEQ
+//     GREATEREQ (nonassoc) < PLUS MINUS < TIMES DIVIDE PERCENT
+//
+// A prefix operator parses its operand at the precedence CUP gives its
+// production: unary MINUS takes a whole product (-a*b is -(a*b)), while
+// NOT, ADDROF and the dereference TIMES take a single operand. Subscripts
+// apply to the nearest loc, as CUP always shifts LSQBRACKET.
+//
+// At its first syntax error a silent parser just stops. Any other hands
+// the rest of the tokens to the CUP parser, which reports the error and
+// recovers through the error productions of c.cup, re-syncing where the
+// next 3 tokens parse, as it would have in a parse of the whole file. Its
+// recovery only depends on the stmt lists open on its stack, those of the
+// function and blocks the error is in, or else on the top-level decl list,
+// so it is given a few stand-in tokens that open the same ones first (see
+// handOver). The diagnostics are all CUP's, and nothing is parsed twice.
+//
+// parseParallel cuts the tokens into runs of whole top-level decls, by
+// brace depth, and parses the runs silently on a pool. Runs that parse
+// cleanly are exactly what a sequential parse builds for their tokens; from
+// the first run with an error on, the tokens are parsed sequentially again
+// so that the diagnostics are those of parse(). The diagnostics the tokens
+// hold from their scan are reported as the tokens are reached, by the
+// parser or, for a clean run, once the runs before it are in.
+// **********************************************************************
+class FastParser {
+
+	public FastParser(Scanner scanner) throws Exception {
+		this.scanner = scanner;
+		advance();
+	}
+
+	// Reads the tokens straight out of buffer, without building Symbols
+	public FastParser(TokenBuffer buffer) throws Exception {
+		this(buffer, 0, buffer.size(), false);
+	}
+
+	// Reads tokens [from, to) of buffer. A silent parser reports nothing:
+	// IncrementalParser checks getErrors() and reparses the whole file for
+	// the diagnostics.
+	public FastParser(TokenBuffer buffer, int from, int to, boolean silent) throws Exception {
+		buffer.checkNames();
+		this.buffer = buffer;
+		this.silent = silent;
+		if (from > 0) {
+			afterDecl = true;
+			afterFn = buffer.getKind(from - 1) == sym.RCURLY;
+		}
+		diagnostic = buffer.firstDiagnostic(from);
+		pos = from - 1;
+		end = to;
+		advance();
+	}
+
+	public Program parse() throws Exception {
+		ArrayList<Decl> decls = new ArrayList<Decl>();
+		while (kind != sym.EOF) {
+			Decl d = topLevelDecl();
+			if (d != null && stream != null)
+				stream.add(d);
+			else if (d != null)
+				decls.add(d);
+		}
+		return new Program(new DeclList(decls));
+	}
+
+	// As parser.setStream: parse() hands the top-level decls to stream as
+	// they are parsed and returns an empty Program
+	public void setStream(DeclStream stream) {
+		this.stream = stream;
+	}
+
+	// Parses all of tokens on pool; same result and diagnostics as
+	// new FastParser(tokens).parse()
+	public static Program parseParallel(final TokenBuffer tokens, ForkJoinPool pool) throws Exception {
+		int[] cuts = declRuns(tokens, Math.max(MIN_RUN_SIZE, tokens.size() / (4 * pool.getParallelism())));
+		List<ForkJoinTask<ArrayList<Decl>>> runs = new ArrayList<ForkJoinTask<ArrayList<Decl>>>();
+		for (int i = 0; i + 1 < cuts.length; ++i) {
+			final int from = cuts[i];
+			final int to = cuts[i + 1];
+			runs.add(pool.submit(new Callable<ArrayList<Decl>>() {
+				public ArrayList<Decl> call() throws Exception {
+					FastParser parser = new FastParser(tokens, from, to, true);
+					ArrayList<Decl> ret = new ArrayList<Decl>();
+					while (!parser.atEnd())
+						ret.add(parser.topLevelDecl());
+					return parser.getErrors() == 0 ? ret : null;
+				}
+			}));
+		}
+
+		ArrayList<Decl> decls = new ArrayList<Decl>();
+		int diagnostic = 0; // held by tokens, the first one not reported
+		for (int i = 0; i < runs.size(); ++i) {
+			ArrayList<Decl> run;
+			try {
+				run = runs.get(i).get();
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof Exception)
+					throw (Exception) ex.getCause();
+				if (ex.getCause() instanceof Error)
+					throw (Error) ex.getCause();
+				throw new RuntimeException(ex.getCause());
+			}
+			if (run == null) {
+				// nothing before this run had an error, so a sequential parse
+				// reaches it at top level and reports from here
+				for (int j = i + 1; j < runs.size(); ++j)
+					runs.get(j).cancel(false);
+				FastParser parser = new FastParser(tokens, cuts[i], tokens.size(), false);
+				while (!parser.atEnd()) {
+					Decl d = parser.topLevelDecl();
+					if (d != null)
+						decls.add(d);
+				}
+				break;
+			}
+			decls.addAll(run);
+			diagnostic = tokens.reportDiagnostics(diagnostic,
+					i + 1 < runs.size() ? cuts[i + 1] - 1 : tokens.size());
+		}
+		return new Program(new DeclList(decls));
+	}
+
+	// Token indexes where runs of top-level decls of at least runSize tokens
+	// start, plus tokens.size(). A decl ends at a SEMICOLON or a RCURLY at
+	// brace depth 0; unbalanced braces only make a run fail to parse.
+	private static int[] declRuns(TokenBuffer tokens, int runSize) {
+		int[] ret = new int[16];
+		int count = 1; // ret[0] = 0
+		int depth = 0;
+		int size = tokens.size();
+		for (int i = 0; i < size; ++i) {
+			int kind = tokens.getKind(i);
+			if (kind == sym.LCURLY)
+				depth++;
+			else if (kind == sym.RCURLY)
+				depth = Math.max(depth - 1, 0);
+			else if (kind != sym.SEMICOLON || depth > 0)
+				continue;
+			if (depth == 0 && i + 1 - ret[count - 1] >= runSize && i + 1 < size) {
+				if (count == ret.length)
+					ret = Arrays.copyOf(ret, 2 * count);
+				ret[count++] = i + 1;
+			}
+		}
+		ret = Arrays.copyOf(ret, count + 1);
+		ret[count] = size;
+		return ret;
+	}
+
+	// Parses the next top-level decl; returns null if it had a syntax error,
+	// after which the parser is at its end
+	public Decl topLevelDecl() throws Exception {
+		declAt = consumed;
+		try {
+			Decl ret = decl();
+			afterDecl = true;
+			afterFn = ret instanceof FnDecl;
+			return ret;
+		} catch (SyntaxError ex) {
+			if (!silent)
+				handOver();
+			kind = sym.EOF;
+			return null;
+		}
+	}
+
+	public boolean atEnd() {
+		return kind == sym.EOF;
+	}
+
+	// Buffer index of the current token
+	public int position() {
+		return pos;
+	}
+
+	// Number of syntax errors so far, reported or not
+	public int getErrors() {
+		return errors;
+	}
+
+	// Adds every IntLit, StringLit and Id built from now on to leaves,
+	// which are the nodes that hold source positions
+	public void collectLeaves(List<BasicExp> leaves) {
+		this.leaves = leaves;
+	}
+
+	// ****************************************************************
+	// Declarations
+	// ****************************************************************
+
+	private Decl decl() throws Exception {
+		String t = type();
+		int p = pointers();
+		Id i = id();
+		if (kind == sym.LPAREN) {
+			FormalsList f = formals();
+			Type fnType = p == 0 ? Type.CreateSimpleType(t) : Type.CreatePointerType(t, p);
+			if (kind == sym.SEMICOLON) {
+				advance();
+				return new FnPreDecl(fnType, i, f);
+			}
+			return new FnDecl(fnType, i, f, fnBody());
+		}
+		return varDeclRest(t, p, i);
+	}
+
+	private ArrayList<Decl> varDeclList() throws Exception {
+		ArrayList<Decl> ret = new ArrayList<Decl>();
+		while (kind == sym.INT || kind == sym.VOID) {
+			String t = type();
+			int p = pointers();
+			ret.add(varDeclRest(t, p, id()));
+		}
+		return ret;
+	}
+
+	// The part of a varDecl after its name
+	private VarDecl varDeclRest(String t, int p, Id i) throws Exception {
+		if (kind == sym.LSQBRACKET) {
+			advance();
+			if (kind != sym.INTLITERAL)
+				syntaxError();
+			int size = ((IntLitTokenVal) token()).intVal;
+			advance();
+			expect(sym.RSQBRACKET);
+			expect(sym.SEMICOLON);
+			if (p == 0)
+				return new VarDecl(Type.CreateArrayType(t, size), i);
+			return new VarDecl(Type.CreateArrayPointerType(t, size, p), i);
+		}
+		expect(sym.SEMICOLON);
+		if (p == 0)
+			return new VarDecl(Type.CreateSimpleType(t), i);
+		return new VarDecl(Type.CreatePointerType(t, p), i);
+	}
+
+	private int pointers() throws Exception {
+		int ret = 0;
+		while (kind == sym.TIMES) {
+			advance();
+			ret++;
+		}
+		return ret;
+	}
+
+	private FormalsList formals() throws Exception {
+		expect(sym.LPAREN);
+		ArrayList<FormalDecl> formals = new ArrayList<FormalDecl>();
+		if (kind != sym.RPAREN) {
+			formals.add(formalDecl());
+			while (kind == sym.COMMA) {
+				advance();
+				formals.add(formalDecl());
+			}
+		}
+		expect(sym.RPAREN);
+		return new FormalsList(formals);
+	}
+
+	private FormalDecl formalDecl() throws Exception {
+		String t = type();
+		int p = pointers();
+		Id i = id();
+		if (p == 0)
+			return new FormalDecl(Type.CreateSimpleType(t), i);
+		return new FormalDecl(Type.CreatePointerType(t, p), i);
+	}
+
+	private String type() throws Exception {
+		if (kind == sym.VOID) {
+			advance();
+			return Type.voidTypeName;
+		}
+		expect(sym.INT);
+		return Type.intTypeName;
+	}
+
+	private FnBody fnBody() throws Exception {
+		expect(sym.LCURLY);
+		ArrayList<Decl> v = varDeclList();
+		ArrayList<Stmt> s = stmtList();
+		expect(sym.RCURLY);
+		return new FnBody(new DeclList(v), new StmtList(s));
+	}
+
+	// ****************************************************************
+	// Statements
+	// ****************************************************************
+
+	// Parses stmts up to the RCURLY that closes their block. The blocks of
+	// nested if, while and for stmts are kept on an explicit stack of
+	// Blocks rather than the Java stack, so nesting depth is bounded by the
+	// heap. The stack is also what handOver tells CUP the error is in.
+	private ArrayList<Stmt> stmtList() throws Exception {
+		ArrayList<Stmt> ret = new ArrayList<Stmt>();
+		ArrayList<Stmt> stmts = ret;
+		blocks.clear();
+		inBody = true;
+		bodyAt = consumed;
+		for (;;) {
+			while (kind != sym.RCURLY && kind != sym.EOF) {
+				if (kind == sym.IF || kind == sym.WHILE || kind == sym.FOR) {
+					Block block = blockHead(stmts);
+					blocks.add(block);
+					bodyAt = consumed;
+					stmts = block.stmts;
+				} else
+					stmts.add(stmt());
+			}
+			if (blocks.isEmpty()) {
+				inBody = false;
+				return ret;
+			}
+
+			Block block = blocks.remove(blocks.size() - 1);
+			stmts = block.outer;
+			expect(sym.RCURLY);
+			if (block.kind == sym.IF && block.v1 == null && kind == sym.ELSE) {
+				// back on the stack before the else head, which CUP recovers
+				// from an error in inside the then block
+				blocks.add(block);
+				advance();
+				expect(sym.LCURLY);
+				ArrayList<Decl> decls = varDeclList();
+				block.v1 = block.decls;
+				block.s1 = block.stmts;
+				block.decls = decls;
+				block.stmts = new ArrayList<Stmt>();
+				bodyAt = consumed;
+				stmts = block.stmts;
+			} else {
+				stmts.add(block.stmt());
+				closed = block;
+				closedAt = consumed;
+			}
+		}
+	}
+
+	// Parses an if, while or for stmt up to the decls of its block
+	private Block blockHead(ArrayList<Stmt> outer) throws Exception {
+		Block ret = new Block(kind, outer);
+		advance();
+		if (ret.kind == sym.FOR) {
+			expect(sym.LPAREN);
+			ret.a = kind == sym.SEMICOLON ? null : assign(loc());
+			expect(sym.SEMICOLON);
+			ret.e = exp(0);
+			expect(sym.SEMICOLON);
+			ret.b = kind == sym.RPAREN ? null : assign(loc());
+			expect(sym.RPAREN);
+		} else
+			ret.e = parenExp();
+		expect(sym.LCURLY);
+		ret.decls = varDeclList();
+		return ret;
+	}
+
+	// An if, while or for stmt whose block is being parsed
+	private static final class Block {
+
+		Block(int kind, ArrayList<Stmt> outer) {
+			this.kind = kind;
+			this.outer = outer;
+		}
+
+		// The stmt, once its last block is closed
+		Stmt stmt() {
+			switch (kind) {
+				case sym.IF:
+					if (v1 == null)
+						return new IfStmt(e, new DeclList(decls), new StmtList(stmts));
+					return new IfElseStmt(e, new DeclList(v1), new StmtList(s1),
+							new DeclList(decls), new StmtList(stmts));
+				case sym.WHILE:
+					return new WhileStmt(e, new DeclList(decls), new StmtList(stmts));
+				default:
+					return new ForStmt(a, e, b, new DeclList(decls), new StmtList(stmts));
+			}
+		}
+
+		// IF or ELSE for the then or else block of an if, else the kind
+		int part() {
+			return kind == sym.IF && v1 != null ? sym.ELSE : kind;
+		}
+
+		final int kind;                 // IF, WHILE or FOR
+		final ArrayList<Stmt> outer;    // the stmts the stmt goes to
+		Exp e;
+		Stmt a;                         // for: the init and update assigns
+		Stmt b;
+		ArrayList<Decl> decls;          // the block being parsed
+		ArrayList<Stmt> stmts = new ArrayList<Stmt>();
+		ArrayList<Decl> v1;             // if: the then block, once in the else
+		ArrayList<Stmt> s1;
+	}
+
+	// Parses a stmt that has no block
+	private Stmt stmt() throws Exception {
+		switch (kind) {
+			case sym.RETURN: {
+				advance();
+				if (kind == sym.SEMICOLON) {
+					advance();
+					return new ReturnStmt(null);
+				}
+				Exp e = exp(0);
+				expect(sym.SEMICOLON);
+				return new ReturnStmt(e);
+			}
+			case sym.ID: {
+				Id i = id();
+				if (kind == sym.LPAREN) {
+					CallExp f = fncall(i);
+					expect(sym.SEMICOLON);
+					return new CallStmt(f);
+				}
+				Stmt a = assign(subscripts(i));
+				expect(sym.SEMICOLON);
+				return a;
+			}
+			default: {
+				Stmt a = assign(loc());
+				expect(sym.SEMICOLON);
+				return a;
+			}
+		}
+	}
+
+	// The part of an assign after its loc
+	private Stmt assign(Exp l) throws Exception {
+		int op = kind;
+		switch (op) {
+			case sym.ASSIGN:
+			case sym.PLUSEQL:
+			case sym.MINUSEQL:
+			case sym.TIMESEQL:
+			case sym.DIVEQL:
+				advance();
+				break;
+			default:
+				syntaxError();
+		}
+		Exp e = exp(0);
+		switch (op) {
+			case sym.PLUSEQL:
+				return new AssignStmt(l, new PlusExp(l, e));
+			case sym.MINUSEQL:
+				return new AssignStmt(l, new MinusExp(l, e));
+			case sym.TIMESEQL:
+				return new AssignStmt(l, new TimesExp(l, e));
+			case sym.DIVEQL:
+				return new AssignStmt(l, new DivideExp(l, e));
+			default:
+				return new AssignStmt(l, e);
+		}
+	}
+
+	// ****************************************************************
+	// Expressions
+	// ****************************************************************
+
+	private static final int PREC_NONE = -1;
+	private static final int PREC_OR = 0;
+	private static final int PREC_AND = 1;
+	private static final int PREC_EQUALITY = 2;
+	private static final int PREC_RELATIONAL = 3;
+	private static final int PREC_ADDITIVE = 4;
+	private static final int PREC_MULTIPLICATIVE = 5;
+	private static final int PREC_PREFIX = 6;
+
+	private static int precedence(int kind) {
+		switch (kind) {
+			case sym.OR:
+				return PREC_OR;
+			case sym.AND:
+				return PREC_AND;
+			case sym.EQUALS:
+			case sym.NOTEQUALS:
+				return PREC_EQUALITY;
+			case sym.LESS:
+			case sym.GREATER:
+			case sym.LESSEQ:
+			case sym.GREATEREQ:
+				return PREC_RELATIONAL;
+			case sym.PLUS:
+			case sym.MINUS:
+				return PREC_ADDITIVE;
+			case sym.TIMES:
+			case sym.DIVIDE:
+			case sym.PERCENT:
+				return PREC_MULTIPLICATIVE;
+			default:
+				return PREC_NONE;
+		}
+	}
+
+	// Parses an exp whose binary operators all bind at least as tightly as
+	// minPrec. This is precedence climbing without the recursion: where the
+	// recursive form would call exp for the right operand of a binary
+	// operator, the operand of a prefix operator, the inside of a
+	// parenthesized exp, a subscript or a call argument, it pushes a Frame
+	// saying what to do with the result and goes on parsing at the new
+	// precedence, so a+(a+(...)), !!...a, a[a[...]] and f(f(...)) all nest
+	// on the heap.
+	private Exp exp(int minPrec) throws Exception {
+		int base = frames.size();
+		try {
+			int min = minPrec;
+			for (;;) {
+				// the operand: prefix operators and calls first
+				Exp e;
+				boolean loc = false; // e takes subscripts
+				switch (kind) {
+					case sym.NOT:
+					case sym.ADDROF:
+					case sym.TIMES:
+					case sym.LPAREN:
+						frames.add(new Frame(kind, min));
+						min = kind == sym.LPAREN ? 0 : PREC_PREFIX;
+						advance();
+						continue;
+					case sym.MINUS:
+						frames.add(new Frame(kind, min));
+						advance();
+						min = PREC_MULTIPLICATIVE;
+						continue;
+					case sym.ID: {
+						Id i = id();
+						if (kind != sym.LPAREN) {
+							e = i;
+							loc = true;
+							break;
+						}
+						advance();
+						if (kind == sym.RPAREN) {
+							advance();
+							e = new CallExp(i);
+							break;
+						}
+						Frame f = new Frame(CALL, min);
+						f.lhs = i;
+						f.args = new ArrayList<Exp>();
+						frames.add(f);
+						min = 0;
+						continue;
+					}
+					default:
+						e = primary();
+				}
+
+				// then the subscripts and binary operators, returning e to the
+				// frames below as each level is done
+				for (;;) {
+					if (loc && kind == sym.LSQBRACKET)
+						break;
+					int prec = precedence(kind);
+					if (prec != PREC_NONE && prec >= min)
+						break;
+					if (frames.size() == base)
+						return e;
+					Frame f = frames.get(frames.size() - 1);
+					if (f.kind == CALL && kind == sym.COMMA)
+						break;
+					frames.remove(frames.size() - 1);
+					min = f.minPrec;
+					loc = false;
+					switch (f.kind) {
+						case BINARY:
+							e = binary(f.op, f.lhs, e);
+							int next = precedence(kind);
+							if (next == f.prec && (next == PREC_EQUALITY || next == PREC_RELATIONAL))
+								syntaxError();
+							break;
+						case CALL:
+							f.args.add(e);
+							expect(sym.RPAREN);
+							e = new CallExp((Id) f.lhs, new ActualList(f.args));
+							break;
+						case sym.LSQBRACKET:
+							expect(sym.RSQBRACKET);
+							e = new ArrayExp(f.lhs, e);
+							loc = true;
+							break;
+						case sym.NOT:
+							e = new NotExp(e);
+							break;
+						case sym.MINUS:
+							e = new UnaryMinusExp(e);
+							break;
+						case sym.ADDROF:
+							e = new AddrOfExp(e);
+							break;
+						case sym.TIMES:
+							e = new DeRefExp(e);
+							loc = true;
+							break;
+						default:
+							expect(sym.RPAREN);
+							break;
+					}
+				}
+				if (loc && kind == sym.LSQBRACKET) {
+					Frame f = new Frame(sym.LSQBRACKET, min);
+					f.lhs = e;
+					frames.add(f);
+					min = 0;
+				} else if (kind == sym.COMMA) {
+					// the next argument of the call on top
+					frames.get(frames.size() - 1).args.add(e);
+					min = 0;
+				} else {
+					Frame f = new Frame(BINARY, min);
+					f.lhs = e;
+					f.op = kind;
+					f.prec = precedence(kind);
+					frames.add(f);
+					min = f.prec + 1;
+				}
+				advance();
+			}
+		} finally {
+			while (frames.size() > base)
+				frames.remove(frames.size() - 1);
+		}
+	}
+
+	// An exp whose operand is being parsed: a binary operator's right
+	// operand, a prefix operator's operand, the inside of parentheses, a
+	// subscript or a call argument
+	private static final class Frame {
+
+		Frame(int kind, int minPrec) {
+			this.kind = kind;
+			this.minPrec = minPrec;
+		}
+
+		final int kind;     // BINARY, CALL, or the NOT, MINUS, ADDROF, TIMES, LPAREN or LSQBRACKET
+		final int minPrec;  // of the exp the result goes to
+		Exp lhs;            // binary: the left operand; subscript: the loc; call: the Id
+		int op;             // binary: the operator
+		int prec;           // binary: its precedence
+		ArrayList<Exp> args; // call: the arguments so far
+	}
+
+	private static final int BINARY = -1;
+	private static final int CALL = -2;
+
+	private static Exp binary(int op, Exp e1, Exp e2) {
+		switch (op) {
+			case sym.PLUS:
+				return new PlusExp(e1, e2);
+			case sym.MINUS:
+				return new MinusExp(e1, e2);
+			case sym.TIMES:
+				return new TimesExp(e1, e2);
+			case sym.DIVIDE:
+				return new DivideExp(e1, e2);
+			case sym.PERCENT:
+				return new ModuloExp(e1, e2);
+			case sym.AND:
+				return new AndExp(e1, e2);
+			case sym.OR:
+				return new OrExp(e1, e2);
+			case sym.EQUALS:
+				return new EqualsExp(e1, e2);
+			case sym.NOTEQUALS:
+				return new NotEqualsExp(e1, e2);
+			case sym.LESS:
+				return new LessExp(e1, e2);
+			case sym.GREATER:
+				return new GreaterExp(e1, e2);
+			case sym.LESSEQ:
+				return new LessEqExp(e1, e2);
+			default:
+				return new GreaterEqExp(e1, e2);
+		}
+	}
+
+	// A literal operand
+	private Exp primary() throws Exception {
+		switch (kind) {
+			case sym.INTLITERAL: {
+				IntLitTokenVal i = (IntLitTokenVal) token();
+				advance();
+				return leaf(new IntLit(i.linenum, i.charnum, i.intVal));
+			}
+			case sym.STRINGLITERAL: {
+				StringTokenVal s = (StringTokenVal) token();
+				advance();
+				return leaf(new StringLit(s.linenum, s.charnum, s.strVal));
+			}
+			default:
+				syntaxError();
+				return null;
+		}
+	}
+
+	private Exp parenExp() throws Exception {
+		expect(sym.LPAREN);
+		Exp e = exp(0);
+		expect(sym.RPAREN);
+		return e;
+	}
+
+	private Exp loc() throws Exception {
+		if (kind == sym.TIMES) {
+			advance();
+			return subscripts(new DeRefExp(exp(PREC_PREFIX)));
+		}
+		return subscripts(id());
+	}
+
+	private Exp subscripts(Exp l) throws Exception {
+		while (kind == sym.LSQBRACKET) {
+			advance();
+			Exp e = exp(0);
+			expect(sym.RSQBRACKET);
+			l = new ArrayExp(l, e);
+		}
+		return l;
+	}
+
+	private CallExp fncall(Id i) throws Exception {
+		expect(sym.LPAREN);
+		if (kind == sym.RPAREN) {
+			advance();
+			return new CallExp(i);
+		}
+		ArrayList<Exp> l = new ArrayList<Exp>();
+		l.add(exp(0));
+		while (kind == sym.COMMA) {
+			advance();
+			l.add(exp(0));
+		}
+		expect(sym.RPAREN);
+		return new CallExp(i, new ActualList(l));
+	}
+
+	private Id id() throws Exception {
+		if (kind != sym.ID)
+			syntaxError();
+		Id ret;
+		if (buffer != null)
+			ret = new Id(buffer.getLine(pos), buffer.getChar(pos), buffer.getIntValue(pos));
+		else {
+			StringTokenVal i = (StringTokenVal) current.value;
+			ret = new Id(i.linenum, i.charnum, i.nameId);
+		}
+		advance();
+		return leaf(ret);
+	}
+
+	private <T extends BasicExp> T leaf(T node) {
+		if (leaves != null)
+			leaves.add(node);
+		return node;
+	}
+
+	// ****************************************************************
+	// Tokens
+	// ****************************************************************
+
+	private void advance() throws Exception {
+		if (buffer != null) {
+			pos++;
+			kind = pos < end ? buffer.getKind(pos) : sym.EOF;
+			if (!silent)
+				diagnostic = buffer.reportDiagnostics(diagnostic, pos);
+		} else {
+			current = scanner.next_token();
+			kind = current.sym;
+		}
+		consumed++;
+	}
+
+	// The value of the current token
+	private TokenVal token() {
+		if (buffer != null)
+			return pos < end ? (TokenVal) buffer.getSymbol(pos).value : null;
+		return (TokenVal) current.value;
+	}
+
+	private void expect(int expected) throws Exception {
+		if (kind != expected)
+			syntaxError();
+		advance();
+	}
+
+	// Unwinds to topLevelDecl, which reports the error through CUP
+	private void syntaxError() throws SyntaxError {
+		errors++;
+		throw SYNTAX_ERROR;
+	}
+
+	// Has the CUP parser report the error at the current token, recover and
+	// parse the rest. The stand-in tokens it is given first open the stmt
+	// lists that a parse of the whole file would have open on its stack at
+	// this error, innermost last, or else the decl list (unless the error
+	// is the first token, which nothing can be recovered from); then a
+	// stand-in ELSE, which nothing there parses, with the position of the
+	// current token. It reports the error there and re-syncs from the
+	// current token on, with the same stack to pop. A stmt list is open on
+	// the stack once a token that can follow its decls is shifted: CUP
+	// finds an error at the first token of a stmt list before it opens it,
+	// one at the else head of an if in its then block, and one right after
+	// the RCURLY of a block or function before it reduces it.
+	private void handOver() throws Exception {
+		ArrayList<Integer> open = new ArrayList<Integer>(); // INT for a function
+		if (inBody) {
+			open.add(sym.INT);
+			for (Block b : blocks)
+				open.add(b.part());
+			if (closed != null && closedAt == consumed)
+				open.add(closed.part());
+			else if (bodyAt == consumed && open.remove(open.size() - 1) == sym.ELSE)
+				open.add(sym.IF);
+		} else if (afterFn && consumed == declAt)
+			open.add(sym.INT);
+
+		final ArrayList<Symbol> standIn = new ArrayList<Symbol>();
+		if (!open.isEmpty()) {
+			for (int part : open)
+				standIn(standIn, part);
+			standIn(standIn, sym.RETURN, sym.SEMICOLON);
+		} else if (afterDecl || consumed > declAt)
+			standIn(standIn, sym.INT, sym.ID, sym.SEMICOLON);
+		standIn.add(new Symbol(sym.ELSE, token()));
+
+		final Scanner rest = buffer != null ? buffer.scanner(pos, diagnostic) : null;
+		new parser(new Scanner() {
+			public Symbol next_token() throws Exception {
+				if (next < standIn.size())
+					return standIn.get(next++);
+				if (rest != null)
+					return rest.next_token();
+				if (next++ == standIn.size())
+					return current;
+				return scanner.next_token();
+			}
+
+			private int next = 0;
+		}).parse();
+	}
+
+	// Adds the stand-in tokens that open a function, or the then or else
+	// block of an if, or a while or for block
+	private static void standIn(ArrayList<Symbol> to, int part) {
+		switch (part) {
+			case sym.INT:
+				standIn(to, sym.INT, sym.ID, sym.LPAREN, sym.RPAREN, sym.LCURLY);
+				break;
+			case sym.IF:
+				standIn(to, sym.IF, sym.LPAREN, sym.INTLITERAL, sym.RPAREN, sym.LCURLY);
+				break;
+			case sym.ELSE:
+				standIn(to, sym.IF, sym.LPAREN, sym.INTLITERAL, sym.RPAREN, sym.LCURLY,
+						sym.RCURLY, sym.ELSE, sym.LCURLY);
+				break;
+			case sym.WHILE:
+				standIn(to, sym.WHILE, sym.LPAREN, sym.INTLITERAL, sym.RPAREN, sym.LCURLY);
+				break;
+			default:
+				standIn(to, sym.FOR, sym.LPAREN, sym.SEMICOLON, sym.INTLITERAL, sym.SEMICOLON,
+						sym.RPAREN, sym.LCURLY);
+		}
+	}
+
+	private static void standIn(ArrayList<Symbol> to, int... kinds) {
+		for (int kind : kinds) {
+			if (kind == sym.ID)
+				to.add(new Symbol(kind, new StringTokenVal(0, 0, 0)));
+			else if (kind == sym.INTLITERAL)
+				to.add(new Symbol(kind, new IntLitTokenVal(0, 0, 0)));
+			else
+				to.add(new Symbol(kind, new TokenVal(0, 0)));
+		}
+	}
+
+	private static class SyntaxError extends Exception {
+		SyntaxError() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static final SyntaxError SYNTAX_ERROR = new SyntaxError();
+	private static final int MIN_RUN_SIZE = 16 * 1024; // tokens
+
+	private Scanner scanner;
+	private Symbol current;
+	private TokenBuffer buffer;
+	private int pos = -1;
+	private int end;
+	private int diagnostic = 0; // held by buffer, the first one not reported
+	private int kind;
+	private boolean silent = false;
+	private int errors = 0;
+	private List<BasicExp> leaves = null;
+	// where the parse is, for handOver: the tokens advanced over, and how
+	// many there were where the current decl started, where the stmts of
+	// the innermost block began and where the last block closed
+	private int consumed = 0;
+	private int declAt;
+	private boolean afterDecl = false; // a decl parsed before the current one
+	private boolean afterFn = false;   // and it was a function
+	private boolean inBody = false;    // in the stmts of a function
+	private final ArrayList<Block> blocks = new ArrayList<Block>(); // open in them
+	private int bodyAt;
+	private Block closed = null;
+	private int closedAt;
+	private DeclStream stream = null;
+	private final ArrayList<Frame> frames = new ArrayList<Frame>(); // of exp()
+}
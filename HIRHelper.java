@@ -72,6 +72,14 @@ class HIRHelper {
 		paramCounter = 0;
 	}
 
+	// Resets the global counters too, before a new compilation
+	public static void resetAll() {
+		reset();
+		globalCounter = 0;
+		constCounter = 0;
+		labelCounter = 0;
+	}
+
 	private static int labelCounter = 0;
 	
 	public static String newLabel() {
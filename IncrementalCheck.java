@@ -0,0 +1,178 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// **********************************************************************
+// IncrementalCheck
+//
+// Check for IncrementalLexer and IncrementalParser. Makes random edits to
+// each input through an IncrementalParser and after every edit scans and
+// parses the whole text again: the kind, line, char and value of every
+// token, and the line of every offset, must be those of the full scan, and
+// the decls those of the full parse, positions included (compared as
+// AstSnapshots), or both must have syntax errors. The edits insert, remove
+// or replace a few characters, mostly ones that end tokens or lines
+// (newlines, lone CRs, quotes, backslashes, comment starts). An edit that
+// gives a program that parsed a syntax error is checked and then undone,
+// so that most edits are to a program that parses, which is where
+// IncrementalParser re-parses only the decls an edit touches. The inputs
+// are the ScannerBench corpora at 4k each, the ParseScalingBench programs
+// with many functions and with nested blocks, an empty file, and any
+// files given. Prints the first difference of each input and exits 1 if
+// there are any.
+//
+// usage: IncrementalCheck [-edits n] [-seed n] [file ...]
+// **********************************************************************
+public class IncrementalCheck {
+
+	public static void main(String[] args) throws Exception {
+		int edits = 5000;
+		long seed = 1;
+		List<String> names = new ArrayList<String>();
+		List<String> inputs = new ArrayList<String>();
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-edits") && i + 1 < args.length)
+				edits = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-seed") && i + 1 < args.length)
+				seed = Long.parseLong(args[++i]);
+			else if (args[i].startsWith("-"))
+				usage();
+			else {
+				java.nio.CharBuffer input = Yylex.readFile(args[i]);
+				names.add(args[i]);
+				inputs.add(new String(input.array(), 0, input.limit()));
+			}
+		}
+		names.add("empty");
+		inputs.add("");
+		for (int kind = 0; kind < ScannerBench.CORPORA.length; ++kind) {
+			names.add(ScannerBench.CORPORA[kind] + "-4k");
+			inputs.add(new String(ScannerBench.generate(kind, 4 * 1024)));
+		}
+		names.add(ParseScalingBench.AXES[0] + "-60");
+		inputs.add(new String(ParseScalingBench.generate(0, 60)));
+		names.add(ParseScalingBench.AXES[3] + "-30");
+		inputs.add(new String(ParseScalingBench.generate(3, 30)));
+
+		int failures = 0;
+		// the diagnostics of the scans are not compared: a re-scan only
+		// reports those of the lines it scans
+		Errors.Buffer diagnostics = new Errors.Buffer();
+		diagnostics.hold();
+		try {
+			for (int i = 0; i < inputs.size(); ++i) {
+				String problem = check(inputs.get(i), edits, new Random(seed + i));
+				if (problem != null) {
+					System.out.println(names.get(i) + ": " + problem);
+					failures++;
+				}
+			}
+		} finally {
+			diagnostics.release();
+		}
+		System.out.println(inputs.size() + " inputs, " + edits + " edits each: "
+				+ (failures == 0 ? "every edit matches." : failures + " input(s) differ."));
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void usage() {
+		System.err.println("usage: IncrementalCheck [-edits n] [-seed n] [file ...]");
+		System.exit(-1);
+	}
+
+	// what an edit inserts
+	private static final String[] FRAGMENTS = {
+		"\n", "\r", "\r\n", "\n\n", "\"", "\\", "//", "#", " ", "\t",
+		"{", "}", ";", "a", "1", "int x;", "\"ab", "\\q\"", "$", "x = 1;\n"
+	};
+
+	// Makes edits to input; returns the first difference from a full scan
+	// and parse, or null
+	private static String check(String input, int edits, Random random) throws Exception {
+		StringBuilder text = new StringBuilder(input);
+		peakStrings = 0;
+		IncrementalParser parser = new IncrementalParser(input.toCharArray(), input.length());
+		boolean errors = parser.hasErrors();
+		for (int n = 0; n < edits; ++n) {
+			int offset = random.nextInt(text.length() + 1);
+			int removed = random.nextInt(4) == 0 ? 0 : random.nextInt(Math.min(8, text.length() - offset) + 1);
+			String inserted = random.nextInt(4) == 0 ? "" : FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+			String edit = "edit " + n + " (" + offset + ", " + removed + ", " + quote(inserted) + ")";
+			String undo = text.substring(offset, offset + removed);
+			parser.edit(offset, removed, inserted);
+			text.replace(offset, offset + removed, inserted);
+			String problem = compare(text, parser);
+			if (problem != null)
+				return edit + ": " + problem;
+
+			if (parser.hasErrors() && !errors) {
+				parser.edit(offset, inserted.length(), undo);
+				text.replace(offset, offset + inserted.length(), undo);
+				problem = compare(text, parser);
+				if (problem != null)
+					return edit + ", undone: " + problem;
+			}
+			errors = parser.hasErrors();
+		}
+		return null;
+	}
+
+	private static String compare(StringBuilder text, IncrementalParser parser) throws Exception {
+		char[] chars = text.toString().toCharArray();
+		IncrementalLexer lexer = parser.getLexer();
+		// the scanner works in place in its buffer
+		TokenBuffer expected = TokenBuffer.scan(new Yylex(Arrays.copyOf(chars, chars.length), chars.length));
+		TokenBuffer actual = lexer.getTokens();
+		int size = Math.min(expected.size(), actual.size());
+		for (int i = 0; i < size; ++i) {
+			String want = LexCheck.token(expected, i);
+			String got = LexCheck.token(actual, i);
+			if (!got.equals(want))
+				return "token " + i + " is " + got + ", expected " + want;
+		}
+		if (actual.size() != expected.size())
+			return actual.size() + " tokens, expected " + expected.size();
+
+		// the strings of replaced tokens are dropped from the string table
+		// before they outnumber both 1024 and the live ones (at most the
+		// most there have been, before and after an edit)
+		int strings = 0;
+		for (int i = 0; i < actual.size(); ++i)
+			if (actual.getKind(i) == sym.STRINGLITERAL)
+				strings++;
+		peakStrings = Math.max(peakStrings, strings);
+		if (actual.stringCount() > 3 * peakStrings + 1024)
+			return actual.stringCount() + " strings in the table, for " + strings + " tokens";
+
+		// the lines as the scanner counts them
+		int line = 0;
+		for (int i = 0; i <= chars.length; ++i) {
+			if (lexer.lineOf(i) != line)
+				return "offset " + i + " is on line " + lexer.lineOf(i) + ", expected " + line;
+			if (i < chars.length && chars[i] == '\n')
+				line++;
+		}
+		if (lexer.lineCount() != line + 1)
+			return lexer.lineCount() + " lines, expected " + (line + 1);
+
+		// a silent parse stops at the first syntax error, which is all that
+		// IncrementalParser tells of a program with errors
+		FastParser full = new FastParser(expected, 0, expected.size(), true);
+		Program program = full.parse();
+		if (parser.hasErrors() != (full.getErrors() > 0))
+			return parser.hasErrors() ? "syntax errors, expected none" : "no syntax errors, expected some";
+		if (!parser.hasErrors()
+				&& !Arrays.equals(AstSnapshot.write(parser.getProgram()), AstSnapshot.write(program)))
+			return "the decls differ from a full parse";
+		return null;
+	}
+
+	private static int peakStrings; // live in the input being edited
+
+	private static String quote(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r")
+				.replace("\t", "\\t").replace("\"", "\\\"") + "\"";
+	}
+}
@@ -0,0 +1,138 @@
+import java.io.*;
+import java.util.Arrays;
+
+// **********************************************************************
+// IncrementalLexer
+//
+// Keeps a source text together with its token stream and updates both on
+// each edit. No token spans a newline, so every line starts in the initial
+// scanner state: an edit only re-scans the lines it touches, and the tokens
+// after them are reused with their line numbers shifted.
+//
+// The tokens hold ids of the shared NamePool, so a session is only good
+// until the next compilation resets it; after that edit() and getTokens()
+// throw rather than hand out ids that name other names.
+// **********************************************************************
+class IncrementalLexer {
+
+	public IncrementalLexer(char[] input, int length) throws IOException {
+		text = Arrays.copyOf(input, Math.max(length, 1));
+		this.length = length;
+		lineStarts = new int[16];
+		lineCount = 0;
+		addLineStarts(0, 0, length, true);
+		tokens = TokenBuffer.scan(new Yylex(Arrays.copyOf(text, length), length));
+	}
+
+	// The token stream of the current text; it is updated in place by edit
+	public TokenBuffer getTokens() {
+		tokens.checkNames();
+		return tokens;
+	}
+
+	// Throws if NamePool.reset() was called since the session began
+	public void checkNames() {
+		tokens.checkNames();
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public int lineCount() {
+		return lineCount;
+	}
+
+	// Replaces removed characters at offset with inserted
+	public void edit(int offset, int removed, String inserted) throws IOException {
+		if (offset < 0 || removed < 0 || offset + removed > length)
+			throw new IndexOutOfBoundsException("edit outside of text");
+		checkNames();
+
+		// old lines [firstLine, lastLine] are touched by the edit
+		int firstLine = lineOf(offset);
+		int lastLine = lineOf(offset + removed);
+		int regionStart = lineStarts[firstLine];
+		int oldRegionEnd = lastLine + 1 < lineCount ? lineStarts[lastLine + 1] : length;
+
+		// apply the edit to the text
+		int delta = inserted.length() - removed;
+		if (length + delta > text.length)
+			text = Arrays.copyOf(text, Math.max(2 * text.length, length + delta));
+		if (delta != 0)
+			System.arraycopy(text, offset + removed, text, offset + inserted.length(), length - offset - removed);
+		inserted.getChars(0, inserted.length(), text, offset);
+		length += delta;
+		int newRegionEnd = oldRegionEnd + delta;
+
+		// re-scan the touched lines only
+		TokenBuffer region = TokenBuffer.scan(new Yylex(
+				Arrays.copyOfRange(text, regionStart, newRegionEnd), newRegionEnd - regionStart));
+
+		// replace the line starts of the region, shift the ones after it
+		int tail = lineCount - (lastLine + 1);
+		int regionLines = 1;
+		for (int i = regionStart; i < newRegionEnd; ++i)
+			if (endsLine(text[i]) && (i + 1 < newRegionEnd || tail == 0))
+				regionLines++;
+		int lineDelta = regionLines - (lastLine + 1 - firstLine);
+		ensureLines(lineCount + lineDelta);
+		if (lineDelta != 0)
+			System.arraycopy(lineStarts, lastLine + 1, lineStarts, lastLine + 1 + lineDelta, tail);
+		if (delta != 0)
+			for (int i = lastLine + 1 + lineDelta; i < lineCount + lineDelta; ++i)
+				lineStarts[i] += delta;
+		addLineStarts(firstLine, regionStart, newRegionEnd, tail == 0);
+		lineCount = firstLine + regionLines + tail;
+
+		tokens.replace(tokens.lowerBound(firstLine + 1), tokens.lowerBound(lastLine + 2),
+				region, firstLine, lineDelta);
+	}
+
+	// Index of the line holding offset (0-based)
+	public int lineOf(int offset) {
+		int lo = 0;
+		int hi = lineCount - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (lineStarts[mid] <= offset)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	// Records the starts of the lines in text[from, to) as lines line, line+1,
+	// ...; a line starting at to itself is only recorded if includeEnd is set
+	private void addLineStarts(int line, int from, int to, boolean includeEnd) {
+		ensureLines(line + 1);
+		lineStarts[line] = from;
+		lineCount = line + 1;
+		for (int i = from; i < to; ++i) {
+			if (endsLine(text[i]) && (i + 1 < to || includeEnd)) {
+				ensureLines(lineCount + 1);
+				lineStarts[lineCount++] = i + 1;
+			}
+		}
+	}
+
+	// Whether c ends a line as Yylex counts lines: its yyline only goes up
+	// at a '\n', and the \r rule of c.jlex just resets charNum, so a lone
+	// CR (or the CR of a CRLF) ends no line. IncrementalCheck compares the
+	// lines with a full scan.
+	private static boolean endsLine(char c) {
+		return c == '\n';
+	}
+
+	private void ensureLines(int count) {
+		if (count > lineStarts.length)
+			lineStarts = Arrays.copyOf(lineStarts, Math.max(2 * lineStarts.length, count));
+	}
+
+	private char[] text;
+	private int length;
+	private int[] lineStarts; // offset of the first character of each line
+	private int lineCount;
+	private TokenBuffer tokens;
+}
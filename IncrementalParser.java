@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// **********************************************************************
+// IncrementalParser
+//
+// Keeps a source text parsed into its top-level decls and updates them on
+// each edit. Every decl remembers the lines its tokens span. An edit only
+// re-parses the decls on the lines it touches, from the tokens that
+// IncrementalLexer re-scanned; all other decls are kept as they are.
+// Lines are the unit the lexer re-scans, so decls sharing a line with
+// the edit are re-parsed too. The decls after an edit that adds or
+// removes lines are moved by a pending line shift, which is applied to
+// their leaves (the only nodes with positions) when they are asked for.
+//
+// Like its IncrementalLexer, a session is only good until the next
+// NamePool.reset(): the Ids of its decls hold ids of the pool before it.
+//
+// A run of complete decls parses the same on its own as inside the file,
+// so a region that parses cleanly gives what a full parse would. If it
+// does not (say the edit unbalanced a brace), and as long as the file has
+// syntax errors, the whole file is parsed again, which also reports the
+// errors.
+// **********************************************************************
+class IncrementalParser {
+
+	public IncrementalParser(char[] input, int length) throws Exception {
+		lexer = new IncrementalLexer(input, length);
+		parseAll();
+	}
+
+	// A Program of the current decls; decls that no edit touched are the
+	// same objects as before
+	public Program getProgram() {
+		lexer.checkNames();
+		applyShifts();
+		return new Program(new DeclList(decls));
+	}
+
+	public List<Decl> getDecls() {
+		lexer.checkNames();
+		applyShifts();
+		return Collections.unmodifiableList(decls);
+	}
+
+	public boolean hasErrors() {
+		return hasErrors;
+	}
+
+	public IncrementalLexer getLexer() {
+		return lexer;
+	}
+
+	// Replaces removed characters at offset with inserted
+	public void edit(int offset, int removed, String inserted) throws Exception {
+		// lines (1-based, as in the tokens) touched by the edit
+		int firstLine = lexer.lineOf(offset) + 1;
+		int lastLine = lexer.lineOf(offset + removed) + 1;
+		int oldLineCount = lexer.lineCount();
+		lexer.edit(offset, removed, inserted);
+		int lineDelta = lexer.lineCount() - oldLineCount;
+		if (hasErrors) {
+			parseAll();
+			return;
+		}
+
+		// decls [first, last) are the ones on lines [firstLine, lastLine],
+		// with the lines widened to cover them and any decl sharing a line
+		int first = firstEndingAtOrAfter(firstLine);
+		int last = first;
+		while (last < count && firstLines[last] <= lastLine) {
+			lastLine = Math.max(lastLine, lastLines[last]);
+			last++;
+		}
+		if (first < last)
+			firstLine = Math.min(firstLine, firstLines[first]);
+		while (first > 0 && lastLines[first - 1] >= firstLine) {
+			first--;
+			firstLine = firstLines[first];
+		}
+
+		// re-parse the region, which now covers lines firstLine to
+		// lastLine + lineDelta
+		TokenBuffer tokens = lexer.getTokens();
+		FastParser parser = new FastParser(tokens, tokens.lowerBound(firstLine),
+				tokens.lowerBound(lastLine + lineDelta + 1), true);
+		List<Decl> region = new ArrayList<Decl>();
+		List<List<BasicExp>> regionLeaves = new ArrayList<List<BasicExp>>();
+		int[] regionLines = new int[8];
+		while (!parser.atEnd()) {
+			int start = parser.position();
+			List<BasicExp> l = new ArrayList<BasicExp>();
+			parser.collectLeaves(l);
+			Decl d = parser.topLevelDecl();
+			if (parser.getErrors() > 0) {
+				parseAll();
+				return;
+			}
+			if (2 * region.size() + 2 > regionLines.length)
+				regionLines = Arrays.copyOf(regionLines, 2 * regionLines.length);
+			regionLines[2 * region.size()] = tokens.getLine(start);
+			regionLines[2 * region.size() + 1] = tokens.getLine(parser.position() - 1);
+			region.add(d);
+			regionLeaves.add(l);
+		}
+
+		// splice the region in and shift the decls after it
+		int newCount = count - (last - first) + region.size();
+		ensureCapacity(newCount);
+		int tail = count - last;
+		int newLast = first + region.size();
+		System.arraycopy(firstLines, last, firstLines, newLast, tail);
+		System.arraycopy(lastLines, last, lastLines, newLast, tail);
+		System.arraycopy(shifts, last, shifts, newLast, tail);
+		if (lineDelta != 0) {
+			for (int i = newLast; i < newCount; ++i) {
+				firstLines[i] += lineDelta;
+				lastLines[i] += lineDelta;
+				shifts[i] += lineDelta;
+			}
+		}
+		for (int i = 0; i < region.size(); ++i) {
+			firstLines[first + i] = regionLines[2 * i];
+			lastLines[first + i] = regionLines[2 * i + 1];
+			shifts[first + i] = 0;
+		}
+		decls.subList(first, last).clear();
+		decls.addAll(first, region);
+		leaves.subList(first, last).clear();
+		leaves.addAll(first, regionLeaves);
+		count = newCount;
+	}
+
+	private void parseAll() throws Exception {
+		TokenBuffer tokens = lexer.getTokens();
+		FastParser parser = new FastParser(tokens);
+		decls = new ArrayList<Decl>();
+		leaves = new ArrayList<List<BasicExp>>();
+		count = 0;
+		while (!parser.atEnd()) {
+			int start = parser.position();
+			List<BasicExp> l = new ArrayList<BasicExp>();
+			parser.collectLeaves(l);
+			Decl d = parser.topLevelDecl();
+			if (d != null) {
+				ensureCapacity(count + 1);
+				firstLines[count] = tokens.getLine(start);
+				lastLines[count] = tokens.getLine(parser.position() - 1);
+				shifts[count] = 0;
+				decls.add(d);
+				leaves.add(l);
+				count++;
+			}
+		}
+		hasErrors = parser.getErrors() > 0;
+	}
+
+	private void applyShifts() {
+		for (int i = 0; i < count; ++i) {
+			if (shifts[i] != 0) {
+				for (BasicExp leaf : leaves.get(i))
+					leaf.shiftLine(shifts[i]);
+				shifts[i] = 0;
+			}
+		}
+	}
+
+	// Index of the first decl whose last line is line or later
+	private int firstEndingAtOrAfter(int line) {
+		int lo = 0;
+		int hi = count;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (lastLines[mid] < line)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > firstLines.length) {
+			int size = Math.max(2 * firstLines.length, capacity);
+			firstLines = Arrays.copyOf(firstLines, size);
+			lastLines = Arrays.copyOf(lastLines, size);
+			shifts = Arrays.copyOf(shifts, size);
+		}
+	}
+
+	private IncrementalLexer lexer;
+	private List<Decl> decls;
+	private List<List<BasicExp>> leaves; // the leaves of each decl
+	private int[] firstLines = new int[16]; // line of the first token of each decl
+	private int[] lastLines = new int[16];  // line of the last token of each decl
+	private int[] shifts = new int[16];     // line shift not yet applied to the leaves
+	private int count;
+	private boolean hasErrors;
+}
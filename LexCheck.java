@@ -0,0 +1,146 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+// **********************************************************************
+// LexCheck
+//
+// Concurrency check for the scanner. Scans each input alone, then all of
+// them at once on a pool of threads, each with a Yylex of its own, for
+// several rounds. The kind, line, char and value of every token and the
+// diagnostics of every concurrent scan must be those of the scan alone.
+// The inputs are the ScannerBench corpora at 16 sizes each, and any
+// files given. Prints each scan that differs and exits 1 if there are any.
+//
+// With -fast-lex the concurrent scans are done by FastLexer, so that it is
+// checked against Yylex token for token as well.
+//
+// usage: LexCheck [-fast-lex] [-threads n] [-rounds n] [file ...]
+// **********************************************************************
+public class LexCheck {
+
+	public static void main(String[] args) throws Exception {
+		boolean fastLex = false;
+		int threads = 8;
+		int rounds = 10;
+		List<String> names = new ArrayList<String>();
+		List<char[]> inputs = new ArrayList<char[]>();
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-fast-lex"))
+				fastLex = true;
+			else if (args[i].equals("-threads") && i + 1 < args.length)
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-rounds") && i + 1 < args.length)
+				rounds = Integer.parseInt(args[++i]);
+			else if (args[i].startsWith("-"))
+				usage();
+			else {
+				java.nio.CharBuffer input = Yylex.readFile(args[i]);
+				names.add(args[i]);
+				inputs.add(Arrays.copyOf(input.array(), input.limit()));
+			}
+		}
+		for (int kind = 0; kind < ScannerBench.CORPORA.length; ++kind) {
+			for (int i = 1; i <= 16; ++i) {
+				names.add(ScannerBench.CORPORA[kind] + "-" + 16 * i + "k");
+				inputs.add(ScannerBench.generate(kind, 16 * i * 1024));
+			}
+		}
+
+		Scan[] expected = new Scan[inputs.size()];
+		for (int i = 0; i < expected.length; ++i)
+			expected[i] = scan(inputs.get(i), false);
+
+		final boolean fast = fastLex;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		int failures = 0;
+		try {
+			for (int round = 0; round < rounds; ++round) {
+				List<Future<Scan>> scans = new ArrayList<Future<Scan>>();
+				for (final char[] input : inputs) {
+					scans.add(pool.submit(new Callable<Scan>() {
+						public Scan call() throws IOException {
+							return scan(input, fast);
+						}
+					}));
+				}
+				for (int i = 0; i < scans.size(); ++i) {
+					String problem = compare(expected[i], scans.get(i).get());
+					if (problem != null) {
+						System.out.println("round " + round + ", " + names.get(i) + ": " + problem);
+						failures++;
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		System.out.println((fastLex ? "FastLexer" : "Yylex") + ", " + inputs.size() + " inputs, "
+				+ rounds + " round(s) on " + threads + " threads: "
+				+ (failures == 0 ? "every scan matches." : failures + " scan(s) differ."));
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void usage() {
+		System.err.println("usage: LexCheck [-fast-lex] [-threads n] [-rounds n] [file ...]");
+		System.exit(-1);
+	}
+
+	// The tokens and the diagnostics of one scan
+	static class Scan {
+		TokenBuffer tokens;
+		String diagnostics;
+	}
+
+	private static Scan scan(char[] input, boolean fastLex) throws IOException {
+		// the scanner works in place in its buffer
+		char[] chars = Arrays.copyOf(input, input.length);
+		Errors.Buffer buffer = new Errors.Buffer();
+		Scan ret = new Scan();
+		buffer.hold();
+		try {
+			if (fastLex) {
+				ret.tokens = new TokenBuffer();
+				new FastLexer(chars, chars.length).scanInto(ret.tokens);
+			} else
+				ret.tokens = TokenBuffer.scan(new Yylex(chars, chars.length));
+		} finally {
+			buffer.release();
+		}
+		ret.diagnostics = buffer.toString();
+		return ret;
+	}
+
+	// The first difference between two scans of the same input, or null
+	static String compare(Scan expected, Scan actual) {
+		int size = Math.min(expected.tokens.size(), actual.tokens.size());
+		for (int i = 0; i < size; ++i) {
+			String want = token(expected.tokens, i);
+			String got = token(actual.tokens, i);
+			if (!got.equals(want))
+				return "token " + i + " is " + got + ", expected " + want;
+		}
+		if (actual.tokens.size() != expected.tokens.size())
+			return actual.tokens.size() + " tokens, expected " + expected.tokens.size();
+		if (!actual.diagnostics.equals(expected.diagnostics))
+			return "diagnostics differ";
+		return null;
+	}
+
+	// The kind, line:char and value of token idx
+	static String token(TokenBuffer tokens, int idx) {
+		int kind = tokens.getKind(idx);
+		String ret = kind + " " + tokens.getLine(idx) + ":" + tokens.getChar(idx);
+		switch (kind) {
+			case sym.INTLITERAL:
+				return ret + " " + tokens.getIntValue(idx);
+			case sym.ID:
+			case sym.STRINGLITERAL:
+				return ret + " " + tokens.getStringValue(idx);
+			default:
+				return ret;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+import java.util.Arrays;
+
+// **********************************************************************
+// NamePool
+//
+// Compilation-wide table of identifiers. Every distinct name is stored
+// once and given a small integer id; the scanner interns straight from its
+// buffer, so a repeated identifier costs neither a new String nor a string
+// compare downstream.
+//
+// The static methods use the pool of the current compilation, which
+// Checker empties with reset() before each one. The ids handed out before
+// a reset name nothing, or other names, after it: a TokenBuffer holding
+// them, and so an IncrementalLexer or IncrementalParser session, is only
+// good until the next compilation, and TokenBuffer.checkNames() throws
+// once it is not (see generation()).
+//
+// A NamePool instance is a pool of one thread's own, without locking:
+// each chunk of a parallel scan interns into one, and merge() then adds
+// its names to the shared pool in a single locked pass (see
+// TokenBuffer.scanParallel). The names in RESERVED come first in every
+// pool, so their ids never change.
+// **********************************************************************
+class NamePool {
+
+	// Returns the id of the name held in buf[start, start + length)
+	public static synchronized int intern(char[] buf, int start, int length) {
+		return shared.id(buf, start, length);
+	}
+
+	public static int intern(String name) {
+		return intern(name.toCharArray(), 0, name.length());
+	}
+
+	public static synchronized String getName(int id) {
+		return shared.names[id];
+	}
+
+	public static synchronized int size() {
+		return shared.count;
+	}
+
+	// Empties the shared pool, before a new compilation; the ids handed
+	// out so far are no longer valid, except those of RESERVED
+	public static synchronized void reset() {
+		shared = new NamePool();
+		generation++;
+	}
+
+	// Number of resets so far; an id of the shared pool is only valid in
+	// the generation it was handed out in
+	public static int generation() {
+		return generation;
+	}
+
+	// Adds the names of pool to the shared pool and returns their ids
+	// there, indexed by their ids in pool
+	public static synchronized int[] merge(NamePool pool) {
+		int[] ret = new int[pool.count];
+		for (int id = 0; id < pool.count; ++id) {
+			String name = pool.names[id];
+			ret[id] = shared.id(name.toCharArray(), 0, name.length());
+		}
+		return ret;
+	}
+
+	// An empty pool, but for RESERVED
+	NamePool() {
+		names = new String[INITIAL_CAPACITY];
+		hashes = new int[INITIAL_CAPACITY];
+		slots = new int[2 * INITIAL_CAPACITY];
+		Arrays.fill(slots, EMPTY);
+		for (String name : RESERVED)
+			id(name.toCharArray(), 0, name.length());
+	}
+
+	// Returns the id here of the name held in buf[start, start + length)
+	int id(char[] buf, int start, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; ++i)
+			hash = 31 * hash + buf[start + i];
+
+		int mask = slots.length - 1;
+		int slot = spread(hash) & mask;
+		while (slots[slot] != EMPTY) {
+			int id = slots[slot];
+			if (hashes[id] == hash && matches(names[id], buf, start, length))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+		return add(slot, hash, new String(buf, start, length));
+	}
+
+	String name(int id) {
+		return names[id];
+	}
+
+	// The low bits of a 31-multiplier hash cluster badly on short names;
+	// linear probing needs them spread over the whole table
+	private static int spread(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean matches(String name, char[] buf, int start, int length) {
+		if (name.length() != length)
+			return false;
+		for (int i = 0; i < length; ++i)
+			if (name.charAt(i) != buf[start + i])
+				return false;
+		return true;
+	}
+
+	private int add(int slot, int hash, String name) {
+		if (count == names.length) {
+			names = Arrays.copyOf(names, count * 2);
+			hashes = Arrays.copyOf(hashes, count * 2);
+		}
+		names[count] = name;
+		hashes[count] = hash;
+		slots[slot] = count;
+		int id = count++;
+
+		// keep the load factor at most 1/2
+		if (2 * count > slots.length)
+			rehash(slots.length * 2);
+		return id;
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		int mask = capacity - 1;
+		for (int id = 0; id < count; ++id) {
+			int slot = spread(hashes[id]) & mask;
+			while (slots[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			slots[slot] = id;
+		}
+	}
+
+	private static final int EMPTY = -1;
+	private static final int INITIAL_CAPACITY = 256;
+
+	// the names the passes keep ids of in static fields
+	private static final String[] RESERVED = { "scanf", "printf" };
+
+	private static NamePool shared = new NamePool();
+	private static volatile int generation = 0;
+
+	private String[] names;
+	private int[] hashes;
+	private int[] slots;
+	private int count;
+}
@@ -0,0 +1,144 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+// **********************************************************************
+// ParseCache
+//
+// Directory of AstSnapshots keyed by a SHA-256 of the source bytes and
+// COMPILER_VERSION, so an unchanged file is loaded instead of scanned and
+// parsed. Only parses without any diagnostic are stored, so a hit reports
+// exactly what a parse would: nothing.
+//
+// An entry is written to a temp file in the directory and renamed into
+// place, so a concurrent compile sees either the whole entry or none. A
+// hit touches the entry's modification time; after every store the least
+// recently used entries are deleted until the directory is within its
+// size. The cache is best effort: any failure, an I/O error or a tree
+// too deep for the stack, is a miss, and an entry that does not read back
+// is deleted.
+// **********************************************************************
+class ParseCache {
+
+	// Bump when the front end builds a different tree from the same source
+	public static final String COMPILER_VERSION = "1";
+
+	public ParseCache(File dir, long maxBytes) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("cannot create cache directory " + dir);
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+	}
+
+	public static String key(byte[] source) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex); // every JVM has SHA-256
+		}
+		String version = COMPILER_VERSION + "/" + AstSnapshot.VERSION + "\n";
+		for (int i = 0; i < version.length(); ++i)
+			digest.update((byte) version.charAt(i));
+		byte[] hash = digest.digest(source);
+		StringBuilder ret = new StringBuilder(2 * hash.length);
+		for (byte b : hash) {
+			ret.append(HEX[(b >> 4) & 0xF]);
+			ret.append(HEX[b & 0xF]);
+		}
+		return ret.toString();
+	}
+
+	// The cached tree for key, or null on a miss
+	public Program load(String key) {
+		File entry = new File(dir, key + SUFFIX);
+		byte[] data;
+		try {
+			data = Files.readAllBytes(entry.toPath());
+		} catch (IOException ex) {
+			return null;
+		}
+		try {
+			Program ret = AstSnapshot.read(data);
+			entry.setLastModified(System.currentTimeMillis());
+			return ret;
+		} catch (Exception | StackOverflowError | OutOfMemoryError ex) {
+			entry.delete();
+			return null;
+		}
+	}
+
+	public void store(String key, Program program) {
+		File temp = null;
+		try {
+			temp = File.createTempFile(key, TEMP_SUFFIX, dir);
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				AstSnapshot.write(program, out);
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), new File(dir, key + SUFFIX).toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			temp = null;
+		} catch (Exception | StackOverflowError | OutOfMemoryError ex) {
+			return;
+		} finally {
+			if (temp != null)
+				temp.delete();
+		}
+		evict();
+	}
+
+	// Deletes the least recently used entries until the directory fits in
+	// maxBytes, and temp files left behind by a compile that died
+	private void evict() {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		long now = System.currentTimeMillis();
+		long total = 0;
+		List<File> entries = new ArrayList<File>();
+		final HashMap<File, Long> used = new HashMap<File, Long>();
+		for (File f : files) {
+			if (f.getName().endsWith(SUFFIX)) {
+				entries.add(f);
+				used.put(f, f.lastModified());
+				total += f.length();
+			} else if (f.getName().endsWith(TEMP_SUFFIX) && now - f.lastModified() > STALE_TEMP_MILLIS) {
+				f.delete();
+			}
+		}
+		if (total <= maxBytes)
+			return;
+
+		// times read once: a concurrent hit must not reorder the sort
+		Collections.sort(entries, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(used.get(a), used.get(b));
+			}
+		});
+		for (File f : entries) {
+			if (total <= maxBytes)
+				break;
+			long length = f.length();
+			if (f.delete())
+				total -= length;
+		}
+	}
+
+	private static final String SUFFIX = ".ast";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private File dir;
+	private long maxBytes;
+}
@@ -0,0 +1,273 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+// **********************************************************************
+// ParseScalingBench
+//
+// Scaling benchmark for the front end. Generates programs that grow along
+// one axis at a time, doubling the size at every step:
+//
+//     functions  number of functions
+//     stmts      statements in one function body
+//     expdepth   depth of a right-nested expression a+(a+(a+...))
+//     nesting    depth of nested blocks, if within while within for
+//     args       arguments of a call (and parameters of its function)
+//
+// and times parser.parse() (scanning included) on each, with the peak heap
+// it reached. Prints CSV: per row the growth exponent against the previous
+// step, log(time ratio) / log(size ratio), which is 1 for linear growth; a
+// row, and an axis whose fitted exponent, above -limit is flagged
+// SUPERLINEAR. The parse runs on a thread with a large stack so that the
+// deep axes measure time rather than hit a StackOverflowError.
+//
+// usage: ParseScalingBench [-fast-parse] [-axes a,b,...] [-steps n]
+//                          [-scale x] [-runs n] [-limit x] [-out file]
+// **********************************************************************
+public class ParseScalingBench {
+
+	public static void main(String[] args) throws Exception {
+		final Options options = new Options();
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-fast-parse"))
+				options.fastParse = true;
+			else if (args[i].equals("-axes") && i + 1 < args.length)
+				options.axes = args[++i].split(",");
+			else if (args[i].equals("-steps") && i + 1 < args.length)
+				options.steps = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-scale") && i + 1 < args.length)
+				options.scale = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-runs") && i + 1 < args.length)
+				options.runs = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-limit") && i + 1 < args.length)
+				options.limit = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-out") && i + 1 < args.length)
+				options.out = args[++i];
+			else
+				usage();
+		}
+		for (String axis : options.axes)
+			if (axisIndex(axis) < 0)
+				usage();
+
+		final Exception[] failure = new Exception[1];
+		Thread bench = new Thread(null, new Runnable() {
+			public void run() {
+				try {
+					measure(options);
+				} catch (Exception ex) {
+					failure[0] = ex;
+				}
+			}
+		}, "ParseScalingBench", STACK_SIZE);
+		bench.start();
+		bench.join();
+		if (failure[0] != null)
+			throw failure[0];
+	}
+
+	private static void usage() {
+		System.err.println("usage: ParseScalingBench [-fast-parse] [-axes a,b,...] [-steps n] "
+				+ "[-scale x] [-runs n] [-limit x] [-out file]");
+		System.err.println("axes: functions, stmts, expdepth, nesting, args");
+		System.exit(-1);
+	}
+
+	private static class Options {
+		boolean fastParse = false;
+		String[] axes = AXES;
+		int steps = 5;
+		double scale = 1;
+		int runs = 3;
+		double limit = 1.3;
+		String out = null;
+	}
+
+	private static void measure(Options options) throws Exception {
+		PrintStream out = options.out == null ? System.out : new PrintStream(options.out);
+		out.println("parser,axis,size,chars,parse_ms,peak_heap_mb,exponent,flag");
+		List<String> flagged = new ArrayList<String>();
+		for (String axis : options.axes) {
+			int kind = axisIndex(axis);
+			int size = (int) Math.max(1, BASE_SIZES[kind] * options.scale);
+			double[] logSizes = new double[options.steps];
+			double[] logTimes = new double[options.steps];
+			for (int step = 0; step < options.steps; ++step, size *= 2) {
+				char[] input = generate(kind, size);
+				parse(input, options.fastParse); // warmup
+				long best = Long.MAX_VALUE;
+				for (int i = 0; i < options.runs; ++i)
+					best = Math.min(best, timeParse(input, options.fastParse));
+				long peak = peakHeap(input, options.fastParse);
+
+				logSizes[step] = Math.log(size);
+				logTimes[step] = Math.log(Math.max(best, 1));
+				String exponent = "";
+				String flag = "";
+				if (step > 0) {
+					double e = (logTimes[step] - logTimes[step - 1]) / (logSizes[step] - logSizes[step - 1]);
+					exponent = String.format("%.2f", e);
+					if (e > options.limit)
+						flag = "SUPERLINEAR";
+				}
+				out.printf("%s,%s,%d,%d,%.2f,%.1f,%s,%s%n", options.fastParse ? "fast" : "cup",
+						axis, size, input.length, best / 1e6, peak / (1024.0 * 1024.0), exponent, flag);
+				out.flush();
+			}
+
+			// a single slow step is noise more often than not; the fit over all
+			// steps is what says the axis is superlinear
+			double fit = slope(logSizes, logTimes);
+			if (fit > options.limit)
+				flagged.add(axis + String.format(" (exponent %.2f)", fit));
+		}
+		if (out != System.out)
+			out.close();
+		System.err.println(flagged.isEmpty() ? "no superlinear axis"
+				: "SUPERLINEAR: " + String.join(", ", flagged));
+	}
+
+	// ****************************************************************
+	// Measuring
+	// ****************************************************************
+
+	private static Object parse(char[] input, boolean fastParse) throws Exception {
+		char[] copy = input.clone(); // the scanner works in place
+		Errors.begin();
+		try {
+			if (fastParse)
+				return new FastParser(new Yylex(copy, copy.length)).parse();
+			return new parser(new Yylex(copy, copy.length)).parse().value;
+		} finally {
+			if (!Errors.end().isEmpty())
+				throw new IllegalStateException("the generated program does not parse");
+		}
+	}
+
+	private static long timeParse(char[] input, boolean fastParse) throws Exception {
+		long start = System.nanoTime();
+		parse(input, fastParse);
+		return System.nanoTime() - start;
+	}
+
+	// Highest heap use during one parse, over all heap pools
+	private static long peakHeap(char[] input, boolean fastParse) throws Exception {
+		System.gc();
+		List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				pool.resetPeakUsage();
+				pools.add(pool);
+			}
+		}
+		Object tree = parse(input, fastParse);
+		long ret = 0;
+		for (MemoryPoolMXBean pool : pools)
+			ret += pool.getPeakUsage().getUsed();
+		if (tree == null)
+			throw new IllegalStateException();
+		return ret;
+	}
+
+	// Least-squares slope of y over x
+	private static double slope(double[] x, double[] y) {
+		int n = x.length;
+		if (n < 2)
+			return 0;
+		double mx = 0;
+		double my = 0;
+		for (int i = 0; i < n; ++i) {
+			mx += x[i] / n;
+			my += y[i] / n;
+		}
+		double sxy = 0;
+		double sxx = 0;
+		for (int i = 0; i < n; ++i) {
+			sxy += (x[i] - mx) * (y[i] - my);
+			sxx += (x[i] - mx) * (x[i] - mx);
+		}
+		return sxy / sxx;
+	}
+
+	// ****************************************************************
+	// Program generation
+	// ****************************************************************
+
+	static final String[] AXES = { "functions", "stmts", "expdepth", "nesting", "args" };
+	private static final int[] BASE_SIZES = { 2000, 20000, 1000, 500, 500 };
+	private static final long STACK_SIZE = 1L << 30;
+
+	private static int axisIndex(String axis) {
+		for (int i = 0; i < AXES.length; ++i)
+			if (AXES[i].equals(axis))
+				return i;
+		return -1;
+	}
+
+	// The program of the given axis at size; IncrementalCheck edits some of
+	// them too
+	static char[] generate(int kind, int size) {
+		StringBuilder out = new StringBuilder();
+		switch (kind) {
+			case 0:
+				for (int i = 0; i < size; ++i)
+					out.append("int f").append(i).append("(int a) {\n\tint x;\n\tx = a + ")
+							.append(i).append(";\n\treturn x;\n}\n");
+				break;
+			case 1:
+				out.append("void f() {\n\tint x;\n");
+				for (int i = 0; i < size; ++i)
+					out.append("\tx = x + ").append(i).append(";\n");
+				out.append("}\n");
+				break;
+			case 2:
+				out.append("void f(int a) {\n\tint x;\n\tx = ");
+				for (int i = 0; i < size; ++i)
+					out.append("a+(");
+				out.append('a');
+				for (int i = 0; i < size; ++i)
+					out.append(')');
+				out.append(";\n}\n");
+				break;
+			case 3:
+				out.append("void f(int a) {\n\tint x;\n");
+				for (int i = 0; i < size; ++i) {
+					switch (i % 3) {
+						case 0:
+							out.append("if (x < a) {\n");
+							break;
+						case 1:
+							out.append("while (x < a) {\n");
+							break;
+						default:
+							out.append("for (x = 0; x < a; x += 1) {\n");
+							break;
+					}
+				}
+				out.append("x = x + 1;\n");
+				for (int i = 0; i < size; ++i)
+					out.append("}\n");
+				out.append("}\n");
+				break;
+			default:
+				out.append("int g(");
+				for (int i = 0; i < size; ++i)
+					out.append(i == 0 ? "" : ", ").append("int a").append(i);
+				out.append(") {\n\treturn a0;\n}\n\nvoid f() {\n\tint x;\n");
+				for (int call = 0; call < 16; ++call) {
+					out.append("\tx = g(");
+					for (int i = 0; i < size; ++i)
+						out.append(i == 0 ? "" : ", ").append(i % 2 == 0 ? "x" : Integer.toString(i));
+					out.append(");\n");
+				}
+				out.append("}\n");
+				break;
+		}
+		char[] ret = new char[out.length()];
+		out.getChars(0, out.length(), ret, 0);
+		return ret;
+	}
+}
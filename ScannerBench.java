@@ -0,0 +1,281 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java_cup.runtime.*;
+
+// **********************************************************************
+// ScannerBench
+//
+// Throughput benchmark for the scanner. Builds synthetic C-- inputs in
+// memory (identifier-, literal- and comment-heavy text and deeply nested
+// braces) at several sizes, drives next_token() over each one and reports
+// tokens per second and bytes allocated per token. Every input is also
+// written out with -dump so it can be fed to Checker.
+//
+// With -small n it instead makes n scanners per corpus, each on a copy of
+// its first line or so (about 64 bytes), and reports scanners per second
+// and bytes allocated per scanner: what it costs to set up a scanner
+// rather than to run one. run.sh makes the JLex DFA tables of Yylex
+// static, so they are decoded once per JVM instead of once per scanner;
+// regenerate c.jlex.java without that step to see the difference.
+//
+// usage: ScannerBench [-fast-lex] [-sizes 10k,1m,50m] [-small n] [-warmup n]
+//                     [-runs n] [-dump dir]
+// **********************************************************************
+public class ScannerBench {
+
+	public static void main(String[] args) throws IOException {
+		boolean fastLex = false;
+		String sizes = "10k,1m,50m";
+		int warmup = 3;
+		int runs = 5;
+		String dumpDir = null;
+		int small = 0;
+
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-fast-lex"))
+				fastLex = true;
+			else if (args[i].equals("-sizes") && i + 1 < args.length)
+				sizes = args[++i];
+			else if (args[i].equals("-warmup") && i + 1 < args.length)
+				warmup = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-runs") && i + 1 < args.length)
+				runs = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-dump") && i + 1 < args.length)
+				dumpDir = args[++i];
+			else if (args[i].equals("-small") && i + 1 < args.length)
+				small = Integer.parseInt(args[++i]);
+			else
+				usage();
+		}
+
+		if (small > 0) {
+			System.out.println((fastLex ? "FastLexer" : "Yylex") + ", " + small + " scanners, "
+					+ warmup + " warmup run(s), " + runs + " measured run(s)");
+			System.out.printf("%-10s %10s %12s %14s %14s%n",
+					"corpus", "size", "tokens", "scanners/sec", "bytes/scanner");
+			for (int kind = 0; kind < CORPORA.length; ++kind)
+				reportSmall(CORPORA[kind], tiny(kind), small, fastLex, warmup, runs);
+			return;
+		}
+
+		System.out.println((fastLex ? "FastLexer" : "Yylex") + ", " + warmup
+				+ " warmup run(s), " + runs + " measured run(s)");
+		System.out.printf("%-10s %10s %12s %14s %12s%n",
+				"corpus", "size", "tokens", "tokens/sec", "bytes/token");
+		for (String size : sizes.split(",")) {
+			int bytes = parseSize(size);
+			for (int kind = 0; kind < CORPORA.length; ++kind) {
+				char[] input = generate(kind, bytes);
+				if (dumpDir != null)
+					dump(input, new File(dumpDir, CORPORA[kind] + "-" + size + ".c"));
+				report(CORPORA[kind], size, input, fastLex, warmup, runs);
+			}
+		}
+	}
+
+	private static void usage() {
+		System.err.println("usage: ScannerBench [-fast-lex] [-sizes 10k,1m,50m] [-small n] "
+				+ "[-warmup n] [-runs n] [-dump dir]");
+		System.exit(-1);
+	}
+
+	// ****************************************************************
+	// Measuring
+	// ****************************************************************
+
+	private static void report(String corpus, String size, char[] input, boolean fastLex,
+			int warmup, int runs) throws IOException {
+		for (int i = 0; i < warmup; ++i)
+			scan(input, fastLex);
+
+		long best = Long.MAX_VALUE;
+		long allocated = 0;
+		int tokens = 0;
+		for (int i = 0; i < runs; ++i) {
+			long bytesBefore = allocatedBytes();
+			long start = System.nanoTime();
+			tokens = scan(input, fastLex);
+			long time = System.nanoTime() - start;
+			allocated += allocatedBytes() - bytesBefore;
+			best = Math.min(best, time);
+		}
+
+		double perSec = tokens / (best / 1e9);
+		double perToken = ALLOCATION.isThreadAllocatedMemorySupported()
+				? (double) allocated / runs / Math.max(tokens, 1) : Double.NaN;
+		System.out.printf("%-10s %10s %12d %14.0f %12.1f%n", corpus, size, tokens, perSec, perToken);
+	}
+
+	// As report, for scanners scanners each on its own copy of input
+	private static void reportSmall(String corpus, char[] input, int scanners, boolean fastLex,
+			int warmup, int runs) throws IOException {
+		for (int i = 0; i < warmup; ++i)
+			for (int j = 0; j < scanners; ++j)
+				scan(input, fastLex);
+
+		long best = Long.MAX_VALUE;
+		long allocated = 0;
+		int tokens = 0;
+		for (int i = 0; i < runs; ++i) {
+			long bytesBefore = allocatedBytes();
+			long start = System.nanoTime();
+			for (int j = 0; j < scanners; ++j)
+				tokens = scan(input, fastLex);
+			long time = System.nanoTime() - start;
+			allocated += allocatedBytes() - bytesBefore;
+			best = Math.min(best, time);
+		}
+
+		double perSec = scanners / (best / 1e9);
+		double perScanner = ALLOCATION.isThreadAllocatedMemorySupported()
+				? (double) allocated / runs / scanners : Double.NaN;
+		System.out.printf("%-10s %10d %12d %14.0f %14.1f%n", corpus, input.length, tokens, perSec, perScanner);
+	}
+
+	// Scans all of input and returns the number of tokens. The scanner gets
+	// its own copy, like a freshly read file.
+	private static int scan(char[] input, boolean fastLex) throws IOException {
+		char[] copy = input.clone();
+		Scanner scanner = fastLex ? new FastLexer(copy, copy.length) : new Yylex(copy, copy.length);
+		int count = 0;
+		try {
+			while (scanner.next_token().sym != sym.EOF)
+				count++;
+		} catch (IOException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+		return count;
+	}
+
+	private static long allocatedBytes() {
+		if (!ALLOCATION.isThreadAllocatedMemorySupported())
+			return 0;
+		return ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	// ****************************************************************
+	// Corpus generation
+	// ****************************************************************
+
+	static final String[] CORPORA = { "ident", "literal", "comment", "nested" };
+
+	// Builds about bytes characters of lexically valid input of the given
+	// kind; LexCheck scans the same corpora
+	static char[] generate(int kind, int bytes) {
+		Random random = new Random(kind + 1);
+		StringBuilder out = new StringBuilder(bytes + 256);
+		while (out.length() < bytes) {
+			switch (kind) {
+				case 0:
+					identLine(out, random);
+					break;
+				case 1:
+					literalLine(out, random);
+					break;
+				case 2:
+					commentLines(out, random);
+					break;
+				default:
+					nestedBlock(out, random);
+					break;
+			}
+		}
+		char[] ret = new char[out.length()];
+		out.getChars(0, out.length(), ret, 0);
+		return ret;
+	}
+
+	private static void identLine(StringBuilder out, Random random) {
+		out.append("\t").append(name(random)).append(" = ")
+				.append(name(random)).append(" + ").append(name(random))
+				.append(" * ").append(name(random)).append("(")
+				.append(name(random)).append(", ").append(name(random)).append(");\n");
+	}
+
+	private static void literalLine(StringBuilder out, Random random) {
+		out.append("\tx = ").append(random.nextInt(Integer.MAX_VALUE))
+				.append(" + ").append(random.nextInt(1000)).append(";\n");
+		out.append("\tprintf(\"value ").append(random.nextInt(100000))
+				.append("\\t\\\"q\\\"\\n\");\n");
+	}
+
+	private static void commentLines(StringBuilder out, Random random) {
+		out.append("// ").append(name(random)).append(" ").append(name(random))
+				.append(" is updated below\n");
+		out.append("# ").append(random.nextInt(100000)).append(" ")
+				.append(name(random)).append("\n");
+		out.append("\t").append(name(random)).append(" += 1; // step\n");
+	}
+
+	// A block nested up to 256 levels deep; the indentation is left out so
+	// that the braces rather than whitespace dominate the input
+	private static void nestedBlock(StringBuilder out, Random random) {
+		int depth = 1 + random.nextInt(256);
+		for (int i = 0; i < depth; ++i)
+			out.append("if (x < ").append(i).append(") {\n");
+		out.append("x = x + 1;\n");
+		for (int i = 0; i < depth; ++i)
+			out.append("}\n");
+	}
+
+	// The whole lines of the corpus of the given kind up to about
+	// TINY_BYTES characters, for -small
+	private static char[] tiny(int kind) {
+		char[] input = generate(kind, TINY_BYTES);
+		int end = Math.min(TINY_BYTES, input.length);
+		while (end < input.length && input[end - 1] != '\n')
+			end++;
+		return Arrays.copyOf(input, end);
+	}
+
+	private static final int TINY_BYTES = 64;
+
+	// Identifiers come from a fixed vocabulary, as in a real program where
+	// the same names recur
+	private static String name(Random random) {
+		return VOCABULARY[random.nextInt(VOCABULARY.length)];
+	}
+
+	private static final String IDENT_START =
+			"abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_";
+	private static final String IDENT_PART = IDENT_START + "0123456789";
+	private static final String[] VOCABULARY = new String[4096];
+
+	static {
+		Random random = new Random(0);
+		for (int i = 0; i < VOCABULARY.length; ++i) {
+			char[] name = new char[1 + random.nextInt(12)];
+			name[0] = IDENT_START.charAt(random.nextInt(IDENT_START.length()));
+			for (int j = 1; j < name.length; ++j)
+				name[j] = IDENT_PART.charAt(random.nextInt(IDENT_PART.length()));
+			VOCABULARY[i] = new String(name);
+		}
+	}
+
+	// 10k, 1m, 50m or a plain byte count
+	private static int parseSize(String size) {
+		String s = size.trim().toLowerCase();
+		int scale = 1;
+		if (s.endsWith("k")) {
+			scale = 1024;
+			s = s.substring(0, s.length() - 1);
+		} else if (s.endsWith("m")) {
+			scale = 1024 * 1024;
+			s = s.substring(0, s.length() - 1);
+		}
+		return Integer.parseInt(s) * scale;
+	}
+
+	private static void dump(char[] input, File file) throws IOException {
+		Writer writer = new BufferedWriter(new FileWriter(file));
+		writer.write(input);
+		writer.close();
+	}
+
+	private static final com.sun.management.ThreadMXBean ALLOCATION =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+}
@@ -0,0 +1,361 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java_cup.runtime.*;
+
+// **********************************************************************
+// TokenBuffer
+//
+// Holds a whole token stream in parallel primitive arrays (kind, line,
+// char, value) instead of one Symbol plus one TokenVal per token. The value
+// of an INTLITERAL is the literal itself, of an ID its NamePool id, and of
+// a STRINGLITERAL an index into the string table. Symbols are only
+// materialized when the parser asks for them through scanner().
+//
+// The buffer of a chunk of a parallel scan interns its IDs into a NamePool
+// of its own rather than contend for the shared one; append() merges it.
+// Any other buffer holds ids of the shared pool, which are stale once
+// NamePool.reset() is called: using the buffer after that throws.
+//
+// A buffer can also hold back the diagnostics of its scan (see
+// holdDiagnostics), each noted with the token that was being scanned, so
+// that a parser reports them as it reaches that token: in the order a
+// parser reading straight from the scanner would interleave them with
+// its syntax errors.
+// **********************************************************************
+class TokenBuffer {
+
+	public TokenBuffer() {
+		kinds = new int[INITIAL_CAPACITY];
+		lines = new int[INITIAL_CAPACITY];
+		chars = new int[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY];
+		strings = new String[INITIAL_CAPACITY];
+	}
+
+
+	// Scans all of the input of scanner into a new buffer
+	public static TokenBuffer scan(Yylex scanner) throws IOException {
+		TokenBuffer ret = new TokenBuffer();
+		scanner.scanInto(ret);
+		return ret;
+	}
+
+	// Scans input[0, length) in chunks on pool and stitches the results back
+	// together. Chunks are cut right after a newline: no token spans a line
+	// (string literals and comments end at the newline), so every line starts
+	// in the initial scanner state at char 1 and only the line numbers of a
+	// chunk need shifting. The same goes for the diagnostics of a chunk,
+	// which the result holds, in chunk order, as a single scanner would
+	// report them.
+	public static TokenBuffer scanParallel(final char[] input, int length, ForkJoinPool pool)
+			throws IOException {
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, length / (4 * pool.getParallelism()));
+		List<ForkJoinTask<TokenBuffer>> chunks = new ArrayList<ForkJoinTask<TokenBuffer>>();
+		List<Integer> firstLines = new ArrayList<Integer>();
+		int start = 0;
+		int line = 0;
+		while (start < length) {
+			int end = Math.min(start + chunkSize, length);
+			while (end < length && input[end - 1] != '\n')
+				end++;
+			final int from = start;
+			final int to = end;
+			chunks.add(pool.submit(new Callable<TokenBuffer>() {
+				public TokenBuffer call() throws IOException {
+					TokenBuffer ret = new TokenBuffer();
+					ret.names = new NamePool();
+					ret.holdDiagnostics();
+					try {
+						new Yylex(Arrays.copyOfRange(input, from, to), to - from).scanInto(ret);
+					} finally {
+						ret.releaseDiagnostics();
+					}
+					return ret;
+				}
+			}));
+			firstLines.add(line);
+			for (int i = start; i < end; ++i)
+				if (input[i] == '\n')
+					line++;
+			start = end;
+		}
+
+		TokenBuffer ret = new TokenBuffer();
+		for (int i = 0; i < chunks.size(); ++i) {
+			try {
+				ret.append(chunks.get(i).get(), firstLines.get(i));
+			} catch (InterruptedException ex) {
+				throw new InterruptedIOException();
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof IOException)
+					throw (IOException) ex.getCause();
+				throw new RuntimeException(ex.getCause());
+			}
+		}
+		return ret;
+	}
+
+	// Appends all tokens of other, and the diagnostics it holds, moving
+	// them lineOffset lines down
+	public void append(TokenBuffer other, int lineOffset) {
+		if (other.diagnostics != null) {
+			if (diagnostics == null)
+				diagnostics = new Errors.Buffer(this);
+			diagnostics.append(other.diagnostics, lineOffset, size);
+		}
+		int stringOffset = stringCount;
+		for (int i = 0; i < other.stringCount; ++i)
+			addString(other.strings[i]);
+		int[] nameIds = other.names == null ? null : NamePool.merge(other.names);
+		for (int i = 0; i < other.size; ++i) {
+			int value = other.values[i];
+			if (other.kinds[i] == sym.STRINGLITERAL)
+				value += stringOffset;
+			else if (other.kinds[i] == sym.ID && nameIds != null)
+				value = nameIds[value];
+			add(other.kinds[i], other.lines[i] + lineOffset, other.chars[i], value);
+		}
+	}
+
+	// Replaces tokens [from, to) by the tokens of replacement moved lineOffset
+	// lines down, and moves the tokens after them lineDelta lines down. The
+	// strings of the replaced tokens stay in the string table until there
+	// are more of them than of live ones (and than INITIAL_CAPACITY, so
+	// that the tokens are not walked every few edits); then
+	// compactStrings drops them.
+	public void replace(int from, int to, TokenBuffer replacement, int lineOffset, int lineDelta) {
+		for (int i = from; i < to; ++i)
+			if (kinds[i] == sym.STRINGLITERAL)
+				deadStrings++;
+		if (deadStrings > Math.max(INITIAL_CAPACITY, stringCount - deadStrings + replacement.stringCount))
+			compactStrings(from, to);
+		int stringOffset = stringCount;
+		for (int i = 0; i < replacement.stringCount; ++i)
+			addString(replacement.strings[i]);
+
+		int newSize = size + replacement.size - (to - from);
+		if (newSize > kinds.length) {
+			int capacity = Math.max(2 * kinds.length, newSize);
+			kinds = Arrays.copyOf(kinds, capacity);
+			lines = Arrays.copyOf(lines, capacity);
+			chars = Arrays.copyOf(chars, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		int tail = from + replacement.size;
+		if (tail != to || lineDelta != 0)
+			copy(tail, this, to, size - to, lineDelta, 0);
+		copy(from, replacement, 0, replacement.size, lineOffset, stringOffset);
+		size = newSize;
+	}
+
+	// Rebuilds the string table with only the strings of the tokens outside
+	// [from, to), in token order
+	private void compactStrings(int from, int to) {
+		String[] live = new String[Math.max(INITIAL_CAPACITY, 2 * (stringCount - deadStrings))];
+		int count = 0;
+		for (int i = 0; i < size; ++i) {
+			if (kinds[i] == sym.STRINGLITERAL && (i < from || i >= to)) {
+				live[count] = strings[values[i]];
+				values[i] = count++;
+			}
+		}
+		strings = live;
+		stringCount = count;
+		deadStrings = 0;
+	}
+
+	// Holds back what this thread reports from now until
+	// releaseDiagnostics(), which should be the diagnostics of scanning
+	// into this buffer
+	public void holdDiagnostics() {
+		if (diagnostics == null)
+			diagnostics = new Errors.Buffer(this);
+		diagnostics.hold();
+	}
+
+	public void releaseDiagnostics() {
+		diagnostics.release();
+	}
+
+	// Number of the first held diagnostic that came while scanning token
+	// idx or a later one
+	public int firstDiagnostic(int idx) {
+		int lo = 0;
+		int hi = diagnostics == null ? 0 : diagnostics.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (diagnostics.tokenIdx(mid) < idx)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	// Reports the held diagnostics from number next on that came while
+	// scanning token idx or an earlier one (past the last token, the ones
+	// at the end of the input), and returns the number of the first one
+	// left. A parser calls it as it gets to each token.
+	public int reportDiagnostics(int next, int idx) {
+		if (diagnostics == null)
+			return next;
+		int to = next;
+		while (to < diagnostics.size() && diagnostics.tokenIdx(to) <= idx)
+			to++;
+		diagnostics.replay(next, to, 0);
+		return to;
+	}
+
+	// Index of the first token on line or on a later line
+	public int lowerBound(int line) {
+		int lo = 0;
+		int hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (lines[mid] < line)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private void copy(int dest, TokenBuffer src, int from, int count, int lineDelta, int stringDelta) {
+		System.arraycopy(src.kinds, from, kinds, dest, count);
+		System.arraycopy(src.lines, from, lines, dest, count);
+		System.arraycopy(src.chars, from, chars, dest, count);
+		System.arraycopy(src.values, from, values, dest, count);
+		if (lineDelta != 0)
+			for (int i = dest; i < dest + count; ++i)
+				lines[i] += lineDelta;
+		if (stringDelta != 0)
+			for (int i = dest; i < dest + count; ++i)
+				if (kinds[i] == sym.STRINGLITERAL)
+					values[i] += stringDelta;
+	}
+
+	public void add(int kind, int line, int charnum, int value) {
+		if (size == kinds.length) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			lines = Arrays.copyOf(lines, capacity);
+			chars = Arrays.copyOf(chars, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		kinds[size] = kind;
+		lines[size] = line;
+		chars[size] = charnum;
+		values[size] = value;
+		size++;
+	}
+
+	// The id of the name held in buf[start, start + length), for an ID
+	public int addName(char[] buf, int start, int length) {
+		if (names != null)
+			return names.id(buf, start, length);
+		return NamePool.intern(buf, start, length);
+	}
+
+	public int addString(String value) {
+		if (stringCount == strings.length)
+			strings = Arrays.copyOf(strings, stringCount * 2);
+		strings[stringCount] = value;
+		return stringCount++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Number of strings in the string table, of live tokens or not
+	public int stringCount() {
+		return stringCount;
+	}
+
+	public int getKind(int idx) {
+		return kinds[idx];
+	}
+
+	public int getLine(int idx) {
+		return lines[idx];
+	}
+
+	public int getChar(int idx) {
+		return chars[idx];
+	}
+
+	public int getIntValue(int idx) {
+		return values[idx];
+	}
+
+	public String getStringValue(int idx) {
+		if (kinds[idx] == sym.ID) {
+			if (names != null)
+				return names.name(values[idx]);
+			checkNames();
+			return NamePool.getName(values[idx]);
+		}
+		return strings[values[idx]];
+	}
+
+	// Builds the Symbol the scanner would have returned for token idx
+	public Symbol getSymbol(int idx) {
+		switch (kinds[idx]) {
+			case sym.INTLITERAL:
+				return new Symbol(sym.INTLITERAL, new IntLitTokenVal(lines[idx], chars[idx], values[idx]));
+			case sym.ID:
+				return new Symbol(sym.ID, new StringTokenVal(lines[idx], chars[idx], values[idx]));
+			case sym.STRINGLITERAL:
+				return new Symbol(sym.STRINGLITERAL, new StringTokenVal(lines[idx], chars[idx], strings[values[idx]]));
+			default:
+				return new Symbol(kinds[idx], new TokenVal(lines[idx], chars[idx]));
+		}
+	}
+
+	// Throws if the shared NamePool was reset since this buffer was made, as
+	// its ids then name nothing or other names
+	public void checkNames() {
+		if (names == null && generation != NamePool.generation())
+			throw new IllegalStateException("the NamePool was reset since these tokens were scanned");
+	}
+
+	// Adapter that feeds the buffered tokens to the parser one at a time
+	public Scanner scanner() {
+		return scanner(0, 0);
+	}
+
+	// The same from token first on, and held diagnostic number
+	// firstDiagnostic
+	public Scanner scanner(final int first, final int firstDiagnostic) {
+		checkNames();
+		return new Scanner() {
+			public Symbol next_token() {
+				diagnostic = reportDiagnostics(diagnostic, next);
+				if (next < size)
+					return getSymbol(next++);
+				return new Symbol(sym.EOF);
+			}
+
+			private int next = first;
+			private int diagnostic = firstDiagnostic; // the first one not yet reported
+		};
+	}
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+	private int[] kinds;
+	private int[] lines;
+	private int[] chars;
+	private int[] values;
+	private int size;
+	private String[] strings;
+	private int stringCount;
+	private int deadStrings; // in the table, of tokens replace() dropped
+	private NamePool names; // of a chunk, until append(); else the shared pool
+	private final int generation = NamePool.generation(); // of the shared pool
+	private Errors.Buffer diagnostics; // held back, or null
+}
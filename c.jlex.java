@@ -27,60 +27,170 @@ class BadEscapedChar extends Exception {
 //TokenVal for both STRINGLITERAL and ID
 class StringTokenVal extends TokenVal {
   String strVal;
+  // NamePool id of an ID, -1 for a STRINGLITERAL
+  int nameId;
   StringTokenVal(int l, int c, String s) {
     super(l, c);
     strVal = s;
+    nameId = -1;
+  }
+  StringTokenVal(int l, int c, int id) {
+    super(l, c);
+    strVal = NamePool.getName(id);
+    nameId = id;
+  }
+  // the literal with its escaped characters expanded, built on first use
+  private String decoded;
+  String getDecoded() {
+    if (decoded == null) {
+      try {
+        decoded = checkEscapedChars(strVal);
+      } catch (BadEscapedChar e) {
+        // the scanner only returns literals whose escapes are valid
+        throw new IllegalStateException("bad escaped character in " + strVal);
+      }
+    }
+    return decoded;
+  }
+  static boolean isEscape(char c) {
+    return c == 'n' || c == 't' || c == '"' || c == '\\' || c == '\'';
+  }
+  //check, without allocating, that every backslash in buf[start, end) starts
+  //a valid escape sequence
+  static boolean validEscapes(char buf[], int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (buf[i] == '\\') {
+        if (i == end - 1 || !isEscape(buf[i + 1]))
+          return false;
+        ++i;
+      }
+    }
+    return true;
   }
   //process string s and return a String with all the escaped characters expanded
   //throws BadEscapedChar if a bad escaped character is found
   public static String checkEscapedChars(String s) throws BadEscapedChar {
-    // index 0 is the opening quote, so don't include it.
-    int start = 1;
-    int slash = s.indexOf("\\");
-    String strVal = "";
-    while (slash != -1) {
-      strVal = strVal + s.substring(start, slash);
-      // if the slash is the last character in the string then we are done.
-      if (slash == s.length() - 1) throw new BadEscapedChar();
-      char c = s.charAt(slash + 1);
-      if (c == 'n') {
-        strVal = strVal + "\n";
-      } else if (c == 't') {
-        strVal = strVal + "\t";
-      } else if (c == '"') {
-        strVal = strVal + "\"";
-      } else if (c == '\\') {
-        strVal = strVal + "\\";
-      } else if (c == '\'') {
-        strVal = strVal + "'";
-      } else {
-        throw new BadEscapedChar();
+    StringBuilder strVal = new StringBuilder(s.length());
+    // index 0 is the opening quote and the last character is the closing
+    // quote, so don't include them.
+    for (int i = 1; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c == '\\') {
+        // if the slash is the last character in the string then we are done.
+        if (i == s.length() - 1) throw new BadEscapedChar();
+        c = s.charAt(++i);
+        if (c == 'n') {
+          strVal.append('\n');
+        } else if (c == 't') {
+          strVal.append('\t');
+        } else if (c == '"' || c == '\\' || c == '\'') {
+          strVal.append(c);
+        } else {
+          throw new BadEscapedChar();
+        }
+      } else if (i < s.length() - 1) {
+        strVal.append(c);
       }
-      start = slash + 2;
-      slash = s.indexOf("\\", slash + 2);
     }
-    //the last character is the closing quote, so don't include.
-    if (start < s.length() - 1)
-      strVal = strVal + s.substring(start, s.length() - 1);
-    return strVal;
+    return strVal.toString();
   }
 }
-// The following class is used to keep track of the character number at which
-// the current token starts on its line.
-class CharNum {
-  static int num=1;
-}
 
 
 class Yylex implements java_cup.runtime.Scanner {
-	private final int YY_BUFFER_SIZE = 512;
-	private final int YY_F = -1;
-	private final int YY_NO_STATE = -1;
-	private final int YY_NOT_ACCEPT = 0;
-	private final int YY_START = 1;
-	private final int YY_END = 2;
-	private final int YY_NO_ANCHOR = 4;
-	private final char YY_EOF = '\uFFFF';
+	private static final int YY_BUFFER_SIZE = 512;
+	private static final int YY_F = -1;
+	private static final int YY_NO_STATE = -1;
+	private static final int YY_NOT_ACCEPT = 0;
+	private static final int YY_START = 1;
+	private static final int YY_END = 2;
+	private static final int YY_NO_ANCHOR = 4;
+	private static final char YY_EOF = '\uFFFF';
+
+// The character number at which the current token starts on its line. It
+// belongs to this scanner, so scanners on different threads do not share
+// position state.
+private int charNum = 1;
+// Scans directly over a buffer holding the whole source, so the scanner
+// never has to refill or compact yy_buffer while reading the file. The
+// scanner takes ownership of input; it must not be modified afterwards.
+Yylex (char input[], int length) {
+  this ();
+  if (input.length > 0)
+    yy_buffer = input;
+  yy_buffer_read = length;
+  // only read at the end of input, to find it empty: no need for the
+  // default 8192-char buffer in every scanner
+  yy_reader = new java.io.BufferedReader(new java.io.CharArrayReader(new char[0]), 1);
+}
+// Maps the file with NIO and decodes it in one pass into a single buffer.
+static java.nio.CharBuffer readFile(String fileName) throws java.io.IOException {
+  java.nio.channels.FileChannel channel =
+      new java.io.RandomAccessFile(fileName, "r").getChannel();
+  try {
+    return java.nio.charset.Charset.defaultCharset().decode(
+        channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+  } finally {
+    channel.close();
+  }
+}
+static Yylex fromFile(String fileName) throws java.io.IOException {
+  java.nio.CharBuffer chars = readFile(fileName);
+  return new Yylex(chars.array(), chars.limit());
+}
+// When non-null, tokens are recorded into this buffer instead of being
+// allocated as Symbol/TokenVal objects (see scanInto).
+private TokenBuffer tokens;
+// Returned by next_token for every token recorded into a TokenBuffer.
+private static final Symbol RECORDED = new Symbol(sym.error);
+// Scans the remaining input into buffer in one pass, without allocating a
+// Symbol or TokenVal per token.
+void scanInto(TokenBuffer buffer) throws java.io.IOException {
+  tokens = buffer;
+  try {
+    while (next_token().sym != sym.EOF)
+      ;
+  } finally {
+    tokens = null;
+  }
+}
+private Symbol token(int kind) {
+  int start = charNum;
+  charNum += yylength();
+  if (tokens != null) {
+    tokens.add(kind, yyline+1, start, -1);
+    return RECORDED;
+  }
+  return new Symbol(kind, new TokenVal(yyline+1, start));
+}
+private Symbol intToken(int val) {
+  int start = charNum;
+  charNum += yylength();
+  if (tokens != null) {
+    tokens.add(sym.INTLITERAL, yyline+1, start, val);
+    return RECORDED;
+  }
+  return new Symbol(sym.INTLITERAL, new IntLitTokenVal(yyline+1, start, val));
+}
+private Symbol nameToken() {
+  int start = charNum;
+  charNum += yylength();
+  if (tokens != null) {
+    tokens.add(sym.ID, yyline+1, start, tokens.addName(yy_buffer, yy_buffer_start, yylength()));
+    return RECORDED;
+  }
+  int id = NamePool.intern(yy_buffer, yy_buffer_start, yylength());
+  return new Symbol(sym.ID, new StringTokenVal(yyline+1, start, id));
+}
+private Symbol stringToken(int kind, String val) {
+  int start = charNum;
+  charNum += yylength();
+  if (tokens != null) {
+    tokens.add(kind, yyline+1, start, tokens.addString(val));
+    return RECORDED;
+  }
+  return new Symbol(kind, new StringTokenVal(yyline+1, start, val));
+}
 	private java.io.BufferedReader yy_reader;
 	private int yy_buffer_index;
 	private int yy_buffer_read;
@@ -117,8 +227,8 @@ class Yylex implements java_cup.runtime.Scanner {
 	}
 
 	private boolean yy_eof_done = false;
-	private final int YYINITIAL = 0;
-	private final int yy_state_dtrans[] = {
+	private static final int YYINITIAL = 0;
+	private static final int yy_state_dtrans[] = {
 		0
 	};
 	private void yybegin (int state) {
@@ -210,9 +320,9 @@ class Yylex implements java_cup.runtime.Scanner {
 		}
 		return newbuf;
 	}
-	private final int YY_E_INTERNAL = 0;
-	private final int YY_E_MATCH = 1;
-	private java.lang.String yy_error_string[] = {
+	private static final int YY_E_INTERNAL = 0;
+	private static final int YY_E_MATCH = 1;
+	private static final java.lang.String yy_error_string[] = {
 		"Error: Internal error.\n",
 		"Error: Unmatched input.\n"
 	};
@@ -223,7 +333,7 @@ class Yylex implements java_cup.runtime.Scanner {
 			throw new Error("Fatal Error.\n");
 		}
 	}
-private int [][] unpackFromString(int size1, int size2, String st)
+private static int [][] unpackFromString(int size1, int size2, String st)
     {
       int colonIndex = -1;
       String lengthString;
@@ -266,7 +376,7 @@ private int [][] unpackFromString(int size1, int size2, String st)
 	  }
       return res;
     }
-	private int yy_acpt[] = {
+	private static final int yy_acpt[] = {
 		YY_NOT_ACCEPT,
 		YY_NO_ANCHOR,
 		YY_NO_ANCHOR,
@@ -336,7 +446,7 @@ private int [][] unpackFromString(int size1, int size2, String st)
 		YY_NO_ANCHOR,
 		YY_NO_ANCHOR
 	};
-	private int yy_cmap[] = {
+	private static final int yy_cmap[] = {
 		0, 0, 0, 0, 0, 0, 0, 0,
 		0, 1, 2, 0, 0, 3, 0, 0,
 		0, 0, 0, 0, 0, 0, 0, 0,
@@ -355,7 +465,7 @@ private int [][] unpackFromString(int size1, int size2, String st)
 		21, 21, 21, 39, 40, 41, 0, 0
 		
 	};
-	private int yy_rmap[] = {
+	private static final int yy_rmap[] = {
 		0, 1, 2, 1, 1, 3, 4, 1,
 		5, 1, 1, 6, 7, 1, 8, 9,
 		10, 1, 11, 12, 13, 14, 1, 1,
@@ -366,7 +476,7 @@ private int [][] unpackFromString(int size1, int size2, String st)
 		25, 26, 27, 28, 29, 30, 31, 32,
 		33, 34, 35, 36 
 	};
-	private int yy_nxt[][] = unpackFromString(37,42,
+	private static final int yy_nxt[][] = unpackFromString(37,42,
 "1,2,3,4,5,46,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,1,23,21,61,56,21,47,21:3,67,21:3,62,65,24,49,25,-1:43,2,-1:59,26,-1:22,6:2,-1,6:39,-1:8,29,-1:52,30,-1:41,31,-1:41,32,-1:37,6,-1:3,33,-1:38,16,-1:44,34,-1:41,35,-1:41,36,-1:38,21,-1:4,21,-1:3,21:14,-1:3,45:2,27,45:2,28,45:17,48,45:18,-1:16,21,-1:4,21,-1:3,21:2,37,21:3,51,21:7,-1:3,45:2,27,45:39,-1:40,38,-1:17,21,-1:4,21,-1:3,21:8,39,21:5,-1:19,21,-1:4,21,-1:3,21:10,40,21:3,-1:19,21,-1:4,21,-1:3,21,41,21:12,-1:19,21,-1:4,21,-1:3,42,21:13,-1:19,21,-1:4,21,-1:3,21,43,21:12,-1:19,21,-1:4,21,-1:3,21:6,44,21:7,-1:19,21,-1:4,21,-1:3,21:7,50,21:6,-1:19,21,-1:4,21,-1:3,21:9,52,21:4,-1:19,21,-1:4,21,-1:3,21:4,53,21:9,-1:19,21,-1:4,21,-1:3,21:5,54,21:8,-1:19,21,-1:4,21,-1:3,21:8,55,21:5,-1:19,21,-1:4,21,-1:3,21:5,57,21:8,-1:19,21,-1:4,21,-1:3,21:7,58,21:6,-1:19,21,-1:4,21,-1:3,21:4,59,21:9,-1:19,21,-1:4,21,-1:3,21:11,60,21:2,-1:19,21,-1:4,21,-1:3,21:3,63,21:10,-1:19,21,-1:4,21,-1:3,21:10,64,21:3,-1:19,21,-1:4,21,-1:3,21,66,21:12,-1:3");
 	public java_cup.runtime.Symbol next_token ()
 		throws java.io.IOException {
@@ -418,84 +528,64 @@ return new Symbol(sym.EOF);
 					}
 					switch (yy_last_accept_state) {
 					case 1:
-						{ Errors.fatal(yyline+1, CharNum.num, "ignoring illegal character: " + yytext());
-    CharNum.num++; }
+						{ Errors.fatal(yyline+1, charNum, "ignoring illegal character: " + yytext());
+    charNum++; }
 					case -2:
 						break;
 					case 2:
-						{CharNum.num += yytext().length(); }
+						{charNum += yylength(); }
 					case -3:
 						break;
 					case 3:
-						{CharNum.num = 1;}
+						{charNum = 1;}
 					case -4:
 						break;
 					case 4:
-						{CharNum.num = 1;}
+						{charNum = 1;}
 					case -5:
 						break;
 					case 5:
-						{ Symbol s = new Symbol(sym.NOT, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.NOT); }
 					case -6:
 						break;
 					case 6:
-						{ CharNum.num += yytext().length(); }
+						{ charNum += yylength(); }
 					case -7:
 						break;
 					case 7:
-						{ Symbol s = new Symbol(sym.PERCENT, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 1;
-      return s; }
+						{ return token(sym.PERCENT); }
 					case -8:
 						break;
 					case 8:
-						{ Symbol s = new Symbol(sym.ADDROF, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 1;
-     return s; }
+						{ return token(sym.ADDROF); }
 					case -9:
 						break;
 					case 9:
-						{ Symbol s = new Symbol(sym.LPAREN, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 1;
-      return s; }
+						{ return token(sym.LPAREN); }
 					case -10:
 						break;
 					case 10:
-						{ Symbol s = new Symbol(sym.RPAREN, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 1;
-      return s; }
+						{ return token(sym.RPAREN); }
 					case -11:
 						break;
 					case 11:
-						{ Symbol s = new Symbol(sym.TIMES, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 1;
-      return s; }
+						{ return token(sym.TIMES); }
 					case -12:
 						break;
 					case 12:
-						{ Symbol s = new Symbol(sym.PLUS, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 1;
-      return s; }
+						{ return token(sym.PLUS); }
 					case -13:
 						break;
 					case 13:
-						{ Symbol s = new Symbol(sym.COMMA, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.COMMA); }
 					case -14:
 						break;
 					case 14:
-						{ Symbol s = new Symbol(sym.MINUS, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.MINUS); }
 					case -15:
 						break;
 					case 15:
-						{ Symbol s = new Symbol(sym.DIVIDE, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.DIVIDE); }
 					case -16:
 						break;
 					case 16:
@@ -504,358 +594,263 @@ return new Symbol(sym.EOF);
    try {
      val = (new Integer(yytext())).intValue();
    } catch (NumberFormatException e) {
-     Errors.warn(yyline+1, CharNum.num, "integer literal too large; using max value");
+     Errors.warn(yyline+1, charNum, "integer literal too large; using max value");
      val = Integer.MAX_VALUE;
    }
-   Symbol s = new Symbol(sym.INTLITERAL, new IntLitTokenVal(yyline+1, CharNum.num, val));
-   CharNum.num += yytext().length();
-   return s;
+   return intToken(val);
 }
 					case -17:
 						break;
 					case 17:
-						{ Symbol s = new Symbol(sym.SEMICOLON, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.SEMICOLON); }
 					case -18:
 						break;
 					case 18:
-						{ Symbol s = new Symbol(sym.LESS, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.LESS); }
 					case -19:
 						break;
 					case 19:
-						{ Symbol s = new Symbol(sym.ASSIGN, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.ASSIGN); }
 					case -20:
 						break;
 					case 20:
-						{ Symbol s = new Symbol(sym.GREATER, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.GREATER); }
 					case -21:
 						break;
 					case 21:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -22:
 						break;
 					case 22:
-						{ Symbol s = new Symbol(sym.LSQBRACKET, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.LSQBRACKET); }
 					case -23:
 						break;
 					case 23:
-						{ Symbol s = new Symbol(sym.RSQBRACKET, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.RSQBRACKET); }
 					case -24:
 						break;
 					case 24:
-						{ Symbol s = new Symbol(sym.LCURLY, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.LCURLY); }
 					case -25:
 						break;
 					case 25:
-						{ Symbol s = new Symbol(sym.RCURLY, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.RCURLY); }
 					case -26:
 						break;
 					case 26:
-						{ Symbol s = new Symbol(sym.NOTEQUALS, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.NOTEQUALS); }
 					case -27:
 						break;
 					case 27:
 						{
-    try {
-      StringTokenVal.checkEscapedChars(yytext());
-      Errors.fatal(yyline+1, CharNum.num, "ignoring unterminated string literal");
-    } catch (BadEscapedChar e) {
-      Errors.fatal(yyline+1, CharNum.num, "ignoring unterminated string literal with bad escaped character");
-    }
+    if (StringTokenVal.validEscapes(yy_buffer, yy_buffer_start, yy_buffer_end))
+      Errors.fatal(yyline+1, charNum, "ignoring unterminated string literal");
+    else
+      Errors.fatal(yyline+1, charNum, "ignoring unterminated string literal with bad escaped character");
+    // JLex does not push the newline matched by $ back, so the next line
+    // starts here
+    charNum = 1;
 }
 					case -28:
 						break;
 					case 28:
 						{
-    try {
-      String str = StringTokenVal.checkEscapedChars(yytext());
-      //Symbol s = new Symbol(sym.STRINGLITERAL, new StringTokenVal(yyline+1, CharNum.num, str));
-      Symbol s = new Symbol(sym.STRINGLITERAL, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-      CharNum.num += yytext().length();
-      return s;
-    } catch (BadEscapedChar e) {
-      Errors.fatal(yyline+1, CharNum.num, "ignoring string literal with bad escaped character");
-      CharNum.num += yytext().length();
-    }
+    // escapes are only validated here; StringTokenVal.getDecoded expands
+    // them if a consumer needs the decoded value
+    if (StringTokenVal.validEscapes(yy_buffer, yy_buffer_start, yy_buffer_end))
+      return stringToken(sym.STRINGLITERAL, yytext());
+    Errors.fatal(yyline+1, charNum, "ignoring string literal with bad escaped character");
+    charNum += yylength();
 }
 					case -29:
 						break;
 					case 29:
-						{ Symbol s = new Symbol(sym.AND, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.AND); }
 					case -30:
 						break;
 					case 30:
-						{ Symbol s = new Symbol(sym.TIMESEQL, new TokenVal(yyline+1, CharNum.num));
-       CharNum.num += 2;
-       return s; }
+						{ return token(sym.TIMESEQL); }
 					case -31:
 						break;
 					case 31:
-						{ Symbol s = new Symbol(sym.PLUSEQL, new TokenVal(yyline+1, CharNum.num));
-       CharNum.num += 2;
-       return s; }
+						{ return token(sym.PLUSEQL); }
 					case -32:
 						break;
 					case 32:
-						{ Symbol s = new Symbol(sym.MINUSEQL, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.MINUSEQL); }
 					case -33:
 						break;
 					case 33:
-						{ Symbol s = new Symbol(sym.DIVEQL, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.DIVEQL); }
 					case -34:
 						break;
 					case 34:
-						{ Symbol s = new Symbol(sym.LESSEQ, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.LESSEQ); }
 					case -35:
 						break;
 					case 35:
-						{ Symbol s = new Symbol(sym.EQUALS, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.EQUALS); }
 					case -36:
 						break;
 					case 36:
-						{ Symbol s = new Symbol(sym.GREATEREQ, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.GREATEREQ); }
 					case -37:
 						break;
 					case 37:
-						{ Symbol s = new Symbol(sym.IF, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.IF); }
 					case -38:
 						break;
 					case 38:
-						{ Symbol s = new Symbol(sym.OR, new TokenVal(yyline+1, CharNum.num));
-       CharNum.num += 2;
-       return s; }
+						{ return token(sym.OR); }
 					case -39:
 						break;
 					case 39:
-						{ Symbol s = new Symbol(sym.FOR, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 3;
-      return s; }
+						{ return token(sym.FOR); }
 					case -40:
 						break;
 					case 40:
-						{ Symbol s = new Symbol(sym.INT, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 3;
-      return s; }
+						{ return token(sym.INT); }
 					case -41:
 						break;
 					case 41:
-						{ Symbol s = new Symbol(sym.ELSE, new TokenVal(yyline+1, CharNum.num));
-       CharNum.num += 4;
-       return s; }
+						{ return token(sym.ELSE); }
 					case -42:
 						break;
 					case 42:
-						{ Symbol s = new Symbol(sym.VOID, new TokenVal(yyline+1, CharNum.num));
-       CharNum.num += 4;
-       return s; }
+						{ return token(sym.VOID); }
 					case -43:
 						break;
 					case 43:
-						{ Symbol s = new Symbol(sym.WHILE, new TokenVal(yyline+1, CharNum.num));
-        CharNum.num += 5;
-        return s; }
+						{ return token(sym.WHILE); }
 					case -44:
 						break;
 					case 44:
-						{ Symbol s = new Symbol(sym.RETURN, new TokenVal(yyline+1, CharNum.num));
-         CharNum.num += 6;
-         return s; }
+						{ return token(sym.RETURN); }
 					case -45:
 						break;
 					case 46:
-						{ Errors.fatal(yyline+1, CharNum.num, "ignoring illegal character: " + yytext());
-    CharNum.num++; }
+						{ Errors.fatal(yyline+1, charNum, "ignoring illegal character: " + yytext());
+    charNum++; }
 					case -46:
 						break;
 					case 47:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -47:
 						break;
 					case 49:
-						{ Errors.fatal(yyline+1, CharNum.num, "ignoring illegal character: " + yytext());
-    CharNum.num++; }
+						{ Errors.fatal(yyline+1, charNum, "ignoring illegal character: " + yytext());
+    charNum++; }
 					case -48:
 						break;
 					case 50:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -49:
 						break;
 					case 51:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -50:
 						break;
 					case 52:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -51:
 						break;
 					case 53:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -52:
 						break;
 					case 54:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -53:
 						break;
 					case 55:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -54:
 						break;
 					case 56:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -55:
 						break;
 					case 57:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -56:
 						break;
 					case 58:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -57:
 						break;
 					case 59:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -58:
 						break;
 					case 60:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -59:
 						break;
 					case 61:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -60:
 						break;
 					case 62:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -61:
 						break;
 					case 63:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -62:
 						break;
 					case 64:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -63:
 						break;
 					case 65:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -64:
 						break;
 					case 66:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -65:
 						break;
 					case 67:
 						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
+    return nameToken();
 }
 					case -66:
 						break;
@@ -1,5 +1,27 @@
-a -cp jlex.jar JLex.Main c.jlex
+java -cp jlex.jar JLex.Main c.jlex
+# JLex emits the DFA tables as instance fields, so every Yylex would decode
+# them again; make them (and the constants they use) shared static tables.
+sed -i -e 's/^\tprivate final \(int\|char\) /\tprivate static final \1 /' \
+	-e 's/^\tprivate \(int\|java.lang.String\) \(yy_acpt\|yy_cmap\|yy_rmap\|yy_nxt\|yy_error_string\)\[/\tprivate static final \1 \2[/' \
+	-e 's/^private int \[\]\[\] unpackFromString/private static int [][] unpackFromString/' c.jlex.java
 java -cp javacup.jar java_cup.Main c.cup
 javac -Xlint:unchecked -cp .:javacupruntime.jar:jlex.jar *.java
+# ./run.sh check compiles the CompileCheck cases in every Checker mode
+if [ "$1" = check ]; then
+	exec java -cp .:jlex.jar:javacupruntime.jar CompileCheck
+fi
+# ./run.sh lexcheck scans the ScannerBench corpora and test.c concurrently,
+# with Yylex and then FastLexer, and compares every token with Yylex alone
+if [ "$1" = lexcheck ]; then
+	java -cp .:jlex.jar:javacupruntime.jar LexCheck test.c &&
+		exec java -cp .:jlex.jar:javacupruntime.jar LexCheck -fast-lex test.c
+	exit 1
+fi
+# ./run.sh inccheck makes random edits to test.c and generated inputs
+# through IncrementalParser and compares the tokens and the decls with a
+# full scan and parse after each edit
+if [ "$1" = inccheck ]; then
+	exec java -cp .:jlex.jar:javacupruntime.jar IncrementalCheck test.c
+fi
 java -cp .:jlex.jar:javacupruntime.jar Checker $1 $2
 